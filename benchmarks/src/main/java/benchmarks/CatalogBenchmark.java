@@ -0,0 +1,73 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import models.CatalogSnapshot;
+import models.Dispenser;
+
+// Cost of publishing one stock change as the catalog grows, and a reader walking the whole catalog while a
+// writer keeps selling from it
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogBenchmark {
+
+    @Param({ "100", "10000" })
+    int catalogSize;
+
+    Dispenser dispenser;
+    int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        dispenser = Fixtures.dispenser(catalogSize);
+    }
+
+    // One unit out and back in, so the stock does not drift
+    @Benchmark
+    @Group("publish")
+    public void publishChange() {
+        int productId = Fixtures.productId(next++ % catalogSize);
+        dispenser.updateQuantity(productId, -1);
+        dispenser.updateQuantity(productId, 1);
+    }
+
+    @Benchmark
+    @Group("readWhileSelling")
+    @GroupThreads(1)
+    public void seller() {
+        int productId = Fixtures.productId(next++ % catalogSize);
+        dispenser.updateQuantity(productId, -1);
+        dispenser.updateQuantity(productId, 1);
+    }
+
+    @Benchmark
+    @Group("readWhileSelling")
+    @GroupThreads(1)
+    public long reader() {
+        CatalogSnapshot catalog = dispenser.snapshot();
+        long total = 0;
+        for (int slot = 0; slot < catalog.slotCount(); slot++) {
+            total += catalog.slot(slot).getQuantity();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,52 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import services.BoundedChangeEngine;
+import services.ChangeEngine;
+import services.DenominationService;
+import services.GreedyChangeEngine;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChangeEngineBenchmark {
+
+    @Param({ "greedy", "bounded" })
+    String engine;
+
+    @Param({ "3", "8", "20" })
+    int denominationCount;
+
+    @Param({ "37", "988" })
+    int amount;
+
+    DenominationService denominationService;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        ChangeEngine changeEngine = "greedy".equals(engine) ? new GreedyChangeEngine() : new BoundedChangeEngine();
+        denominationService = new DenominationService(Fixtures.chain(denominationCount), changeEngine);
+    }
+
+    @Benchmark
+    public boolean canWithdrawMoney() {
+        return denominationService.canWithdrawMoney(amount);
+    }
+}
@@ -0,0 +1,63 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import models.IntIntMap;
+import services.DenominationChainService;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChangeMakingBenchmark {
+
+    @Param({ "3", "8", "20" })
+    int denominationCount;
+
+    @Param({ "37", "988" })
+    int amount;
+
+    DenominationChainService chain;
+    IntIntMap refill;
+
+    @Setup(Level.Trial)
+    public void silence() {
+        Fixtures.silenceStdout();
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        chain = Fixtures.chain(denominationCount);
+        refill = Fixtures.coins(1, amount);
+    }
+
+    @Benchmark
+    public boolean canWithdrawMoney() {
+        return chain.canWithdrawMoney(amount);
+    }
+
+    @Benchmark
+    public boolean withdrawMoney() {
+        return chain.withdrawMoney(amount);
+    }
+
+    @Benchmark
+    public boolean canAddMoney() {
+        return chain.canAddMoney(refill);
+    }
+}
@@ -0,0 +1,80 @@
+package benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import models.Dispenser;
+import models.Product;
+
+// Product lookup through the dispenser's slot index against the boxed HashMap it replaced, and a one-unit
+// dispense done as the old availability check, second lookup and update against the single-step dispense
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispenserLookupBenchmark {
+
+    @Param({ "30", "1000" })
+    int catalogSize;
+
+    Dispenser dispenser;
+    Map<Integer, Product> products;
+    int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        dispenser = Fixtures.dispenser(catalogSize);
+        products = new HashMap<>();
+        for (Product product : dispenser.getProducts()) {
+            products.put(product.getId(), product);
+        }
+    }
+
+    @Benchmark
+    public Product hashMapLookup() {
+        return products.get(Fixtures.productId(next++ % catalogSize));
+    }
+
+    @Benchmark
+    public Product slotLookup() {
+        return dispenser.getProduct(Fixtures.productId(next++ % catalogSize));
+    }
+
+    // One unit out and back in, so the stock does not drift
+    @Benchmark
+    public boolean checkThenDispense() {
+        int productId = Fixtures.productId(next++ % catalogSize);
+        if (!dispenser.isProductAvailable(productId) || dispenser.getProduct(productId).getAvailable() < 1) {
+            return false;
+        }
+        dispenser.dispenseProduct(productId, 1);
+        dispenser.updateQuantity(productId, 1);
+        return true;
+    }
+
+    @Benchmark
+    public boolean tryDispense() {
+        int productId = Fixtures.productId(next++ % catalogSize);
+        if (!dispenser.tryDispenseProduct(productId, 1)) {
+            return false;
+        }
+        dispenser.updateQuantity(productId, 1);
+        return true;
+    }
+}
@@ -0,0 +1,58 @@
+package benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import models.Money;
+import services.EventLog;
+
+// Cost on the selling thread of reporting one event: formatting and printing it there, as the services used to,
+// against publishing it to the event log ring. Both print to a discarding stream, so the difference is the
+// formatting, the stream lock and the allocation rather than the terminal.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventLogBenchmark {
+    PrintStream out;
+    EventLog log;
+    long amount;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        out = new PrintStream(OutputStream.nullOutputStream());
+        log = new EventLog(1 << 16, (timestamp, type, a, b) -> out.println(EventLog.format(type, a, b)));
+        log.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        log.stop();
+    }
+
+    @Benchmark
+    public void println() {
+        out.println("Amount due: " + Money.format(++amount));
+    }
+
+    @Benchmark
+    public boolean publish() {
+        return log.publish(EventLog.AMOUNT_DUE, ++amount, 0);
+    }
+}
@@ -0,0 +1,96 @@
+package benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import models.Denomination;
+import models.Dispenser;
+import models.IntIntMap;
+import models.Product;
+import services.DenominationArrayService;
+import services.DenominationChainService;
+import services.DenominationService;
+import services.DenominationVault;
+
+final class Fixtures {
+    static final int LARGE_STOCK = 1_000_000_000;
+    static final int LARGE_VAULT = 500_000_000;
+
+    private static final int[] SERIES = { 1, 2, 5 };
+
+    private Fixtures() {
+    }
+
+    // 1, 2, 5, 10, 20, 50, ... so that greedy change is always possible with enough coins
+    static int[] denominationValues(int count) {
+        int[] values = new int[count];
+        int scale = 1;
+        for (int i = 0; i < count; i++) {
+            values[i] = SERIES[i % SERIES.length] * scale;
+            if (i % SERIES.length == SERIES.length - 1) {
+                scale *= 10;
+            }
+        }
+        return values;
+    }
+
+    static Denomination[] denominations(int denominationCount) {
+        int[] values = denominationValues(denominationCount);
+        Denomination[] denominations = new Denomination[denominationCount];
+        for (int i = 0; i < denominationCount; i++) {
+            denominations[i] = new Denomination(values[i], values[i], Integer.MAX_VALUE);
+            denominations[i].addMoney(LARGE_VAULT);
+        }
+        return denominations;
+    }
+
+    static DenominationChainService chain(int denominationCount) {
+        DenominationChainService head = null;
+        // Build from the smallest value so the head ends up being the largest one
+        for (Denomination denomination : denominations(denominationCount)) {
+            DenominationChainService node = new DenominationChainService(denomination);
+            node.setNext(head);
+            head = node;
+        }
+        return head;
+    }
+
+    static DenominationArrayService array(int denominationCount) {
+        return new DenominationArrayService(denominations(denominationCount));
+    }
+
+    static DenominationVault vault(String backend, int denominationCount) {
+        return "array".equals(backend) ? array(denominationCount) : chain(denominationCount);
+    }
+
+    static DenominationService denominationService(int denominationCount) {
+        return new DenominationService(chain(denominationCount));
+    }
+
+    static Dispenser dispenser(int catalogSize) {
+        List<Product> products = new ArrayList<>(catalogSize);
+        for (int i = 0; i < catalogSize; i++) {
+            products.add(new Product(productId(i), "Product-" + i, 10 + (i % 7), LARGE_STOCK, LARGE_STOCK));
+        }
+        Dispenser dispenser = new Dispenser(1);
+        dispenser.addProducts(products);
+        return dispenser;
+    }
+
+    static int productId(int index) {
+        return 100 + index;
+    }
+
+    static IntIntMap coins(int value, int count) {
+        IntIntMap money = new IntIntMap();
+        money.put(value, count);
+        return money;
+    }
+
+    // processTransaction and the services print on every call; keep the console out of the measurement
+    static void silenceStdout() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+}
@@ -0,0 +1,85 @@
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import models.ColumnarDispenser;
+import models.Dispenser;
+import models.InventoryStore;
+import models.InventoryTable;
+import models.OffHeapInventoryStore;
+import models.Product;
+import models.ProductDispenser;
+
+// Retained heap of a fleet's inventory, as a Product object per slot, as rows of one shared InventoryStore and as
+// records of an OffHeapInventoryStore, whose 64-byte records are reported separately since they are not on the heap.
+// Not a JMH benchmark: it builds the fleet, collects garbage until the used heap settles and reports the growth
+// per machine. Names are new strings per machine, as when the catalogs come from snapshots or a feed.
+//
+//   java -cp benchmarks/target/benchmarks.jar benchmarks.FootprintBenchmark --machines 100000 --products 30
+public class FootprintBenchmark {
+    private static final String[] NAMES = { "Coke", "Pepsi", "Water", "Sprite", "Fanta", "Juice", "Tea", "Coffee",
+            "Chips", "Pretzels", "Chocolate", "Gum", "Mints", "Cookies", "Crackers", "Nuts" };
+
+    public static void main(String[] args) {
+        int machines = 100_000;
+        int products = 30;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--machines":
+                    machines = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--products":
+                    products = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        System.out.printf("%-10s %10s %10s %16s %20s%n", "Inventory", "Machines", "Products", "Bytes/machine",
+                "Off-heap/machine");
+        report("objects", machines, products, measure(machines, products, null), 0);
+        report("columnar", machines, products, measure(machines, products, new InventoryStore()), 0);
+        report("offheap", machines, products, measure(machines, products, OffHeapInventoryStore.allocate()),
+                (long) machines * products * 64);
+    }
+
+    private static void report(String name, int machines, int products, long bytes, long offHeapBytes) {
+        System.out.printf("%-10s %10d %10d %16.1f %20.1f%n", name, machines, products, (double) bytes / machines,
+                (double) offHeapBytes / machines);
+    }
+
+    // Heap retained by the fleet's dispensers, the store included when there is one
+    private static long measure(int machines, int products, InventoryTable store) {
+        long before = usedHeap();
+        List<ProductDispenser> fleet = new ArrayList<>(machines);
+        for (int machine = 0; machine < machines; machine++) {
+            ProductDispenser dispenser = store == null ? new Dispenser(machine) : new ColumnarDispenser(machine, store);
+            List<Product> catalog = new ArrayList<>(products);
+            for (int i = 0; i < products; i++) {
+                String name = new String(NAMES[i % NAMES.length]);
+                catalog.add(new Product(Fixtures.productId(i), name, 1 + (i % 7), 10, 20));
+            }
+            dispenser.addProducts(catalog);
+            fleet.add(dispenser);
+        }
+        long used = usedHeap() - before;
+        // Keeps the fleet reachable until after the measurement
+        if (fleet.size() != machines || (store != null && store.getRowCount() != machines * products)) {
+            throw new IllegalStateException("Fleet was not built");
+        }
+        return used;
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        // One collection can leave garbage that became unreachable while it ran, a few in a row settle the heap
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
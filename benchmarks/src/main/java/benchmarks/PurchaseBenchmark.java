@@ -0,0 +1,81 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import models.Dispenser;
+import models.IntIntMap;
+import services.DenominationService;
+import services.DispenserService;
+import services.SelectProductService;
+import states.ProcessTransactionState;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PurchaseBenchmark {
+
+    @Param({ "1", "4", "16" })
+    int cartSize;
+
+    @Param({ "16", "1024" })
+    int catalogSize;
+
+    @Param({ "3", "12" })
+    int denominationCount;
+
+    SelectProductService selectProductService;
+    ProcessTransactionState state;
+    int[] cartIds;
+
+    @Setup(Level.Trial)
+    public void silence() {
+        Fixtures.silenceStdout();
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        Dispenser dispenser = Fixtures.dispenser(catalogSize);
+        DispenserService dispenserService = new DispenserService(dispenser);
+        DenominationService denominationService = Fixtures.denominationService(denominationCount);
+        selectProductService = new SelectProductService(dispenser);
+
+        cartIds = new int[cartSize];
+        long price = 0;
+        for (int i = 0; i < cartSize; i++) {
+            cartIds[i] = Fixtures.productId((i * 31) % catalogSize);
+            price += dispenser.getProduct(cartIds[i]).getPrice();
+        }
+
+        // Pay with the single largest coin above the price so every sale needs change
+        int[] values = Fixtures.denominationValues(denominationCount);
+        int coin = values[values.length - 1];
+        int coinCount = (int) (price / coin) + 1;
+        IntIntMap money = Fixtures.coins(coin, coinCount);
+
+        state = new ProcessTransactionState(dispenserService, denominationService, selectProductService, money);
+    }
+
+    @Benchmark
+    public void processTransaction() {
+        for (int id : cartIds) {
+            selectProductService.selectProduct(id, 1);
+        }
+        state.processTransaction();
+    }
+}
@@ -0,0 +1,96 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import models.Dispenser;
+import models.IntIntMap;
+import models.Product;
+import services.DenominationService;
+import services.DispenserService;
+import services.SelectProductService;
+import states.InsertMoneyState;
+import states.Outcome;
+import states.ProcessTransactionState;
+import states.VendingMachineState;
+
+// Rejected sales through the throwing API against the outcome-code API. Nothing is sold, so every call sees the
+// same stock and vault.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RejectionBenchmark {
+    static final int SCARCE_ID = 999;
+
+    @Param({ "insufficientFunds", "outOfStock", "invalidState" })
+    String rejection;
+
+    VendingMachineState state;
+
+    @Setup(Level.Trial)
+    public void silence() {
+        Fixtures.silenceStdout();
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        Dispenser dispenser = Fixtures.dispenser(16);
+        dispenser.addProduct(new Product(SCARCE_ID, "Scarce", 10, 1, 1));
+        DispenserService dispenserService = new DispenserService(dispenser);
+        DenominationService denominationService = Fixtures.denominationService(3);
+        SelectProductService selectProductService = new SelectProductService(dispenser);
+
+        switch (rejection) {
+            case "insufficientFunds":
+                selectProductService.selectProduct(Fixtures.productId(0), 1);
+                state = new ProcessTransactionState(dispenserService, denominationService, selectProductService,
+                        Fixtures.coins(1, 1));
+                break;
+            case "outOfStock":
+                // Put straight into the cart, selecting would already refuse the second unit
+                selectProductService.selectedProducts.put(SCARCE_ID, 2);
+                state = new ProcessTransactionState(dispenserService, denominationService, selectProductService,
+                        Fixtures.coins(5, 100));
+                break;
+            default:
+                state = new InsertMoneyState(new IntIntMap());
+        }
+    }
+
+    @Benchmark
+    public Object exception() {
+        try {
+            if ("invalidState".equals(rejection)) {
+                state.selectProduct(Fixtures.productId(0), 1);
+            } else {
+                state.processTransaction();
+            }
+            return null;
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Outcome outcome() {
+        if ("invalidState".equals(rejection)) {
+            return state.trySelectProduct(Fixtures.productId(0), 1);
+        }
+        return state.tryProcessTransaction();
+    }
+}
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import models.Dispenser;
+import services.SelectProductService;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectProductBenchmark {
+
+    @Param({ "1", "4", "16", "64" })
+    int cartSize;
+
+    @Param({ "16", "1024" })
+    int catalogSize;
+
+    Dispenser dispenser;
+    SelectProductService selectProductService;
+    int[] cartIds;
+    int cursor;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        dispenser = Fixtures.dispenser(catalogSize);
+        selectProductService = new SelectProductService(dispenser);
+        cartIds = new int[cartSize];
+        for (int i = 0; i < cartSize; i++) {
+            cartIds[i] = Fixtures.productId((i * 31) % catalogSize);
+        }
+    }
+
+    // Fills a whole cart, then empties it again for the next invocation
+    @Benchmark
+    public void selectProduct() {
+        for (int id : cartIds) {
+            selectProductService.selectProduct(id, 1);
+        }
+        selectProductService.clear();
+    }
+
+    @Benchmark
+    public boolean canDispenseProduct() {
+        int id = Fixtures.productId(cursor++ % catalogSize);
+        return dispenser.canDispenseProduct(id, 1);
+    }
+}
@@ -0,0 +1,69 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import models.IntIntMap;
+import services.DenominationService;
+import services.DispenserService;
+import services.MachineSnapshot;
+
+// Startup cost of a machine: loading a snapshot and rebuilding the services on top of it, and writing one
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+
+    @Param({ "100", "10000" })
+    int catalogSize;
+
+    Path path;
+    DispenserService dispenserService;
+    DenominationService denominationService;
+    IntIntMap cart;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        path = Files.createTempFile("snapshot-benchmark", ".bin");
+        dispenserService = new DispenserService(Fixtures.dispenser(catalogSize));
+        denominationService = Fixtures.denominationService(12);
+        cart = new IntIntMap();
+        save();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Benchmark
+    public DenominationService load() {
+        MachineSnapshot snapshot = MachineSnapshot.read(path);
+        new DispenserService(snapshot.getDispenser());
+        return new DenominationService(snapshot.getVault());
+    }
+
+    @Benchmark
+    public void save() {
+        MachineSnapshot.write(path, 1, MachineSnapshot.IDLE, 0, dispenserService, denominationService, cart, null);
+    }
+}
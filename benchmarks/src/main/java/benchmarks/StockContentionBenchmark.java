@@ -0,0 +1,64 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import models.Dispenser;
+import models.IntIntMap;
+
+// Many sessions buying from the same hot slot: lock-free reserve/release against the check-then-dispense
+// sequence guarded by one lock. Both put the unit back so the stock never runs out.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class StockContentionBenchmark {
+
+    Dispenser dispenser;
+    IntIntMap hotCart;
+    int hotProductId;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        dispenser = Fixtures.dispenser(100);
+        hotProductId = Fixtures.productId(0);
+        hotCart = new IntIntMap();
+        hotCart.put(hotProductId, 1);
+    }
+
+    @Benchmark
+    public boolean lockFree() {
+        if (!dispenser.reserveProducts(hotCart)) {
+            return false;
+        }
+        dispenser.releaseProducts(hotCart);
+        return true;
+    }
+
+    @Benchmark
+    public boolean locked() {
+        synchronized (dispenser) {
+            if (!dispenser.canDispenseProduct(hotProductId, 1)) {
+                return false;
+            }
+            dispenser.dispenseProduct(hotProductId, 1);
+            dispenser.updateQuantity(hotProductId, 1);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package benchmarks;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import services.TimingWheel;
+
+// Arming and disarming one session timeout while a whole fleet's worth of timeouts is pending: the timing
+// wheel against a ScheduledThreadPoolExecutor with remove-on-cancel
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TimeoutBenchmark {
+    private static final Runnable NOTHING = () -> {
+    };
+
+    @Param({ "1000", "1000000" })
+    int pendingTimeouts;
+
+    TimingWheel wheel;
+    ScheduledThreadPoolExecutor executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        wheel = new TimingWheel(10, TimeUnit.MILLISECONDS);
+        wheel.start();
+        executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+        for (int i = 0; i < pendingTimeouts; i++) {
+            long delay = 60 + i % 3600;
+            wheel.schedule(NOTHING, delay, TimeUnit.SECONDS);
+            executor.schedule(NOTHING, delay, TimeUnit.SECONDS);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        wheel.stop();
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean timingWheel() {
+        return wheel.schedule(NOTHING, 30, TimeUnit.SECONDS).cancel();
+    }
+
+    @Benchmark
+    public boolean scheduledExecutor() {
+        ScheduledFuture<?> future = executor.schedule(NOTHING, 30, TimeUnit.SECONDS);
+        return future.cancel(false);
+    }
+}
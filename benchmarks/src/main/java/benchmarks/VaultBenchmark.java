@@ -0,0 +1,68 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import models.IntIntMap;
+import services.DenominationVault;
+
+// Chain versus array vault on the same operations, with vaults of increasing size
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VaultBenchmark {
+
+    @Param({ "chain", "array" })
+    String backend;
+
+    @Param({ "3", "12", "24" })
+    int denominationCount;
+
+    DenominationVault vault;
+    IntIntMap deposit;
+    int amount;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        vault = Fixtures.vault(backend, denominationCount);
+        int[] values = Fixtures.denominationValues(denominationCount);
+        // One coin of every value but the smallest, so the greedy walk visits the whole vault
+        amount = 0;
+        for (int i = 1; i < values.length; i++) {
+            amount += values[i];
+        }
+        deposit = Fixtures.coins(values[0], 1);
+    }
+
+    @Benchmark
+    public boolean canAddMoney() {
+        return vault.canAddMoney(deposit);
+    }
+
+    @Benchmark
+    public boolean canWithdrawMoney() {
+        return vault.canWithdrawMoney(amount);
+    }
+
+    // Deposit and withdraw the same coin so the vault does not drift between invocations
+    @Benchmark
+    public boolean addThenWithdraw() {
+        vault.addMoney(deposit);
+        return vault.withdrawMoney(1);
+    }
+}
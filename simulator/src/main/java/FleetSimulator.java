@@ -0,0 +1,304 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import models.IntIntMap;
+import models.InventoryStore;
+import models.InventoryTable;
+import models.OffHeapInventoryStore;
+import models.Product;
+import services.DenominationService;
+import services.DispenserService;
+import services.EventLog;
+import services.LatencyHistogram;
+import services.MachineMetrics;
+import states.Outcome;
+
+// Builds a fleet of standard machines, each behind its own VendingMachineActor, and drives them concurrently
+// with one of the Workload customer mixes. Reports throughput, per operation latency percentiles and the
+// share of sales the machines rejected.
+//
+//   java -cp core/target/classes:simulator/target/classes FleetSimulator \
+//       --machines 10000 --sales 20 --workload rush-hour --threads 8 --seed 42 --inventory offheap
+public class FleetSimulator {
+    private static final int[] PRODUCT_IDS = { 101, 102, 103 };
+    private static final int[] COIN_VALUES = { 1000, 500, 100 };
+
+    enum Operation {
+        SELECT, CONFIRM, INSERT, PROCESS, RESTOCK, SALE
+    }
+
+    private final int machineCount;
+    private final int salesPerMachine;
+    private final Workload workload;
+    private final long seed;
+    private final ExecutorService executor;
+    // Shared by every machine with --inventory columnar or offheap, null for a Product object per slot
+    private final InventoryTable store;
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    // Timed inside the machines, shared by the whole fleet
+    private final MachineMetrics metrics = new MachineMetrics();
+    private final LongAdder completedSales = new LongAdder();
+    private final LongAdder rejectedSales = new LongAdder();
+
+    public FleetSimulator(int machineCount, int salesPerMachine, Workload workload, int threads, long seed,
+            InventoryTable store) {
+        this.machineCount = machineCount;
+        this.salesPerMachine = salesPerMachine;
+        this.workload = workload;
+        this.seed = seed;
+        this.store = store;
+        // FIFO mode so mailboxes are drained in arrival order instead of the most recently forked first
+        this.executor = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    public static void main(String[] args) {
+        int machines = 1000;
+        int sales = 20;
+        Workload workload = Workload.RUSH_HOUR;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = 42;
+        InventoryTable store = null;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--machines":
+                    machines = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--sales":
+                    sales = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--workload":
+                    workload = Workload.fromName(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "--inventory":
+                    if ("columnar".equals(args[i + 1])) {
+                        store = new InventoryStore();
+                    } else if ("offheap".equals(args[i + 1])) {
+                        store = OffHeapInventoryStore.allocate();
+                    } else if (!"objects".equals(args[i + 1])) {
+                        throw new IllegalArgumentException("Unknown inventory: " + args[i + 1]);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        new FleetSimulator(machines, sales, workload, threads, seed, store).run();
+    }
+
+    public void run() {
+        PrintStream out = System.out;
+        // Machine events are counted by the ring and discarded, and anything still printed directly is kept out of
+        // the measurement too
+        EventLog events = new EventLog(1 << 16, (timestamp, type, a, b) -> {
+        });
+        events.start();
+        EventLog.setShared(events);
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        List<MachineDriver> drivers = new ArrayList<>(machineCount);
+        for (int i = 0; i < machineCount; i++) {
+            VendingMachine machine = store == null ? VendingMachineFactory.createStandardMachine(i + 1)
+                    : VendingMachineFactory.createStandardMachine(i + 1, store);
+            machine.setMetrics(metrics);
+            drivers.add(new MachineDriver(machine, new Random(seed + i)));
+        }
+
+        List<CompletableFuture<Void>> machines = new ArrayList<>(machineCount);
+        long start = System.nanoTime();
+        try {
+            for (MachineDriver driver : drivers) {
+                machines.add(CompletableFuture.supplyAsync(() -> runSessions(driver, salesPerMachine), executor)
+                        .thenCompose(done -> done));
+            }
+            CompletableFuture.allOf(machines.toArray(new CompletableFuture<?>[0])).join();
+        } finally {
+            System.setOut(out);
+            executor.shutdown();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        report(out, elapsed);
+    }
+
+    private CompletableFuture<Void> runSessions(MachineDriver driver, int remaining) {
+        if (remaining == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> step = runSale(driver);
+        if (workload.restockEvery > 0 && (salesPerMachine - remaining + 1) % workload.restockEvery == 0) {
+            step = step.thenCompose(v -> timed(Operation.RESTOCK, () -> driver.actor.send(driver::restock)));
+        }
+        // Async hop so a long run of already completed futures does not grow the stack
+        return step.thenComposeAsync(v -> runSessions(driver, remaining - 1), executor);
+    }
+
+    private CompletableFuture<Void> runSale(MachineDriver driver) {
+        VendingMachineActor actor = driver.actor;
+        int items = workload.minItems + driver.random.nextInt(workload.maxItems - workload.minItems + 1);
+
+        long start = System.nanoTime();
+        long price = 0;
+        CompletableFuture<Void> sale = CompletableFuture.completedFuture(null);
+        for (int i = 0; i < items; i++) {
+            int productId = PRODUCT_IDS[driver.random.nextInt(PRODUCT_IDS.length)];
+            price += driver.price(productId);
+            sale = sale.thenCompose(v -> timed(Operation.SELECT, () -> actor.selectProduct(productId, 1)));
+        }
+
+        IntIntMap money = driver.random.nextDouble() < workload.exactChangeRatio
+                ? exactPayment(price)
+                : overpayment(price, driver.random);
+
+        sale = sale
+                .thenCompose(v -> timed(Operation.CONFIRM, actor::confirmInsertMoney))
+                .thenCompose(v -> timed(Operation.INSERT, () -> actor.insertMoney(money)))
+                .thenCompose(v -> timed(Operation.PROCESS, actor::processTransaction));
+
+        return sale.handle((v, error) -> {
+            latencies[Operation.SALE.ordinal()].record(System.nanoTime() - start);
+            if (error == null) {
+                completedSales.increment();
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            rejectedSales.increment();
+            return actor.send(driver.machine::cancelTransaction);
+        }).thenCompose(next -> next);
+    }
+
+    private CompletableFuture<Void> timed(Operation operation, Supplier<CompletableFuture<Void>> command) {
+        long start = System.nanoTime();
+        return command.get().whenComplete((v, error) -> latencies[operation.ordinal()].record(System.nanoTime() - start));
+    }
+
+    private static IntIntMap exactPayment(long price) {
+        IntIntMap money = new IntIntMap();
+        long remaining = price;
+        for (int value : COIN_VALUES) {
+            int count = (int) (remaining / value);
+            if (count > 0) {
+                money.put(value, count);
+                remaining -= (long) count * value;
+            }
+        }
+        return money;
+    }
+
+    // Whole 10.00 coins, sometimes one more than needed
+    private static IntIntMap overpayment(long price, Random random) {
+        IntIntMap money = new IntIntMap();
+        int coins = (int) (price / COIN_VALUES[0]) + 1 + random.nextInt(2);
+        money.put(COIN_VALUES[0], coins);
+        return money;
+    }
+
+    private void report(PrintStream out, long elapsedNanos) {
+        long completed = completedSales.sum();
+        long rejected = rejectedSales.sum();
+        long attempted = completed + rejected;
+        double seconds = elapsedNanos / 1e9;
+
+        out.println("==========================================");
+        out.println("           FLEET SIMULATION REPORT        ");
+        out.println("==========================================");
+        out.printf("Workload:          %s%n", workload.name);
+        out.printf("Machines:          %d%n", machineCount);
+        out.printf("Sales attempted:   %d%n", attempted);
+        out.printf("Sales completed:   %d%n", completed);
+        out.printf("Rejection rate:    %.2f%%%n", attempted == 0 ? 0.0 : 100.0 * rejected / attempted);
+        out.printf("Elapsed:           %.3f s%n", seconds);
+        out.printf("Throughput:        %.0f completed sales/s%n", completed / seconds);
+        out.println();
+        out.printf("%-10s %12s %12s %12s %12s%n", "Operation", "Count", "p50 (us)", "p99 (us)", "p999 (us)");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies[operation.ordinal()];
+            if (histogram.count() == 0) {
+                continue;
+            }
+            out.printf("%-10s %12d %12.1f %12.1f %12.1f%n", operation, histogram.count(),
+                    histogram.valueAtPercentile(50) / 1e3,
+                    histogram.valueAtPercentile(99) / 1e3,
+                    histogram.valueAtPercentile(99.9) / 1e3);
+        }
+
+        // Same operations measured inside the machine, without the mailbox hop, plus the phases of a sale
+        MachineMetrics.Snapshot inside = metrics.snapshot();
+        out.println();
+        out.printf("%-20s %12s %12s %12s %12s%n", "In machine", "Count", "p50 (us)", "p99 (us)", "p999 (us)");
+        for (MachineMetrics.Operation operation : MachineMetrics.Operation.values()) {
+            LatencyHistogram histogram = inside.getLatency(operation);
+            if (histogram.count() == 0) {
+                continue;
+            }
+            out.printf("%-20s %12d %12.1f %12.1f %12.1f%n", operation, histogram.count(),
+                    histogram.valueAtPercentile(50) / 1e3,
+                    histogram.valueAtPercentile(99) / 1e3,
+                    histogram.valueAtPercentile(99.9) / 1e3);
+        }
+
+        out.println();
+        out.println("Rejects by reason:");
+        for (Outcome reason : Outcome.values()) {
+            long count = inside.getRejects(reason);
+            if (count > 0) {
+                out.printf("  %-18s %12d%n", reason, count);
+            }
+        }
+        out.println("==========================================");
+    }
+
+    private final class MachineDriver {
+        final VendingMachine machine;
+        final VendingMachineActor actor;
+        final Random random;
+
+        MachineDriver(VendingMachine machine, Random random) {
+            this.machine = machine;
+            this.actor = new VendingMachineActor(machine, executor);
+            this.random = random;
+        }
+
+        long price(int productId) {
+            return machine.getDispenserService().getPrice(productId);
+        }
+
+        // Runs inside the machine's mailbox: refill every slot and top up the small coins used for change
+        void restock() {
+            DispenserService dispenserService = machine.getDispenserService();
+            for (int productId : PRODUCT_IDS) {
+                Product product = dispenserService.getProduct(productId);
+                int missing = product.getCapacity() - product.getQuantity();
+                if (missing > 0) {
+                    dispenserService.restockProduct(productId, missing);
+                }
+            }
+
+            DenominationService denominationService = machine.getDenominationService();
+            IntIntMap coins = new IntIntMap();
+            coins.put(COIN_VALUES[COIN_VALUES.length - 1], 20);
+            if (denominationService.canAddMoney(coins)) {
+                denominationService.addMoney(coins);
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+import services.LatencyHistogram;
+
+// Summarises the vending machine events of a flight recording: sale latency by outcome and phase, the slowest
+// sales together with the GC pauses and monitor waits that overlapped them, state transitions and vault calls.
+//
+//   java -XX:StartFlightRecording:filename=fleet.jfr -cp core/target/classes:simulator/target/classes FleetSimulator
+//   java -cp core/target/classes:simulator/target/classes JfrAnalyzer fleet.jfr --top 10
+public class JfrAnalyzer {
+    private static final String[] PHASES = { "reserveTime", "planTime", "commitTime", "journalTime" };
+
+    private final int top;
+    private final PriorityQueue<RecordedEvent> slowest;
+    private final Map<String, LatencyHistogram> salesByOutcome = new TreeMap<>();
+    private final LatencyHistogram[] phases = new LatencyHistogram[PHASES.length];
+    private final Map<String, Long> transitions = new TreeMap<>();
+    private final Map<String, LatencyHistogram> vaultOperations = new TreeMap<>();
+    private final List<RecordedEvent> pauses = new ArrayList<>();
+    private final List<RecordedEvent> monitorWaits = new ArrayList<>();
+
+    public JfrAnalyzer(int top) {
+        this.top = top;
+        this.slowest = new PriorityQueue<>(Comparator.comparing(RecordedEvent::getDuration));
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new LatencyHistogram();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            throw new IllegalArgumentException("Usage: JfrAnalyzer <recording.jfr> [--top N]");
+        }
+        int top = 10;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            if (!"--top".equals(args[i])) {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+            top = Integer.parseInt(args[i + 1]);
+        }
+
+        JfrAnalyzer analyzer = new JfrAnalyzer(top);
+        try (RecordingFile recording = new RecordingFile(Path.of(args[0]))) {
+            while (recording.hasMoreEvents()) {
+                analyzer.accept(recording.readEvent());
+            }
+        }
+        analyzer.report();
+    }
+
+    void accept(RecordedEvent event) {
+        switch (event.getEventType().getName()) {
+            case "vending.Sale":
+                long nanos = event.getDuration().toNanos();
+                salesByOutcome.computeIfAbsent(event.getString("outcome"), outcome -> new LatencyHistogram())
+                        .record(nanos);
+                for (int i = 0; i < PHASES.length; i++) {
+                    phases[i].record(event.getDuration(PHASES[i]).toNanos());
+                }
+                slowest.offer(event);
+                if (slowest.size() > top) {
+                    slowest.poll();
+                }
+                break;
+            case "vending.StateTransition":
+                transitions.merge(event.getString("from") + " -> " + event.getString("to"), 1L, Long::sum);
+                break;
+            case "vending.VaultOperation":
+                vaultOperations.computeIfAbsent(event.getString("operation"), operation -> new LatencyHistogram())
+                        .record(event.getDuration().toNanos());
+                break;
+            case "jdk.GCPhasePause":
+                pauses.add(event);
+                break;
+            case "jdk.JavaMonitorEnter":
+                monitorWaits.add(event);
+                break;
+            default:
+        }
+    }
+
+    void report() {
+        System.out.println("==========================================");
+        System.out.println("           FLIGHT RECORDING SUMMARY       ");
+        System.out.println("==========================================");
+        System.out.printf("%-20s %10s %12s %12s %12s%n", "Sales by outcome", "Count", "p50 (us)", "p99 (us)",
+                "max (us)");
+        for (Map.Entry<String, LatencyHistogram> entry : salesByOutcome.entrySet()) {
+            printRow(entry.getKey(), entry.getValue());
+        }
+
+        System.out.println();
+        System.out.printf("%-20s %10s %12s %12s %12s%n", "Sale phase", "Count", "p50 (us)", "p99 (us)", "max (us)");
+        for (int i = 0; i < PHASES.length; i++) {
+            printRow(PHASES[i], phases[i]);
+        }
+
+        System.out.println();
+        System.out.printf("%-20s %10s %12s %12s %12s%n", "Vault operation", "Count", "p50 (us)", "p99 (us)",
+                "max (us)");
+        for (Map.Entry<String, LatencyHistogram> entry : vaultOperations.entrySet()) {
+            printRow(entry.getKey(), entry.getValue());
+        }
+
+        System.out.println();
+        System.out.println("State transitions:");
+        for (Map.Entry<String, Long> entry : transitions.entrySet()) {
+            System.out.printf("  %-40s %10d%n", entry.getKey(), entry.getValue());
+        }
+
+        List<RecordedEvent> sales = new ArrayList<>(slowest);
+        sales.sort(Comparator.comparing(RecordedEvent::getDuration, Comparator.reverseOrder()));
+        System.out.println();
+        System.out.println("Slowest sales:");
+        for (RecordedEvent sale : sales) {
+            System.out.printf("  %s %9.1f us %-18s lines=%d items=%d price=%d change=%d%n", sale.getStartTime(),
+                    sale.getDuration().toNanos() / 1e3, sale.getString("outcome"), sale.getInt("cartLines"),
+                    sale.getInt("items"), sale.getLong("price"), sale.getLong("change"));
+            System.out.printf("    reserve %.1f us, plan %.1f us, commit %.1f us, journal %.1f us%n",
+                    micros(sale, "reserveTime"), micros(sale, "planTime"), micros(sale, "commitTime"),
+                    micros(sale, "journalTime"));
+            Duration paused = overlap(sale, pauses, null);
+            Duration blocked = overlap(sale, monitorWaits, sale.getThread());
+            if (!paused.isZero() || !blocked.isZero()) {
+                System.out.printf("    overlapping GC pauses %.1f us, monitor waits on this thread %.1f us%n",
+                        paused.toNanos() / 1e3, blocked.toNanos() / 1e3);
+            }
+        }
+        System.out.println("==========================================");
+    }
+
+    private static void printRow(String name, LatencyHistogram histogram) {
+        System.out.printf("%-20s %10d %12.1f %12.1f %12.1f%n", name, histogram.count(),
+                histogram.valueAtPercentile(50) / 1e3, histogram.valueAtPercentile(99) / 1e3,
+                histogram.valueAtPercentile(100) / 1e3);
+    }
+
+    private static double micros(RecordedEvent event, String field) {
+        return event.getDuration(field).toNanos() / 1e3;
+    }
+
+    // Total time of the given events that fell inside the sale, limited to one thread when given
+    private static Duration overlap(RecordedEvent sale, List<RecordedEvent> events, RecordedThread thread) {
+        Instant start = sale.getStartTime();
+        Instant end = sale.getEndTime();
+        Duration total = Duration.ZERO;
+        for (RecordedEvent event : events) {
+            if (thread != null && (event.getThread() == null
+                    || event.getThread().getJavaThreadId() != thread.getJavaThreadId())) {
+                continue;
+            }
+            Instant from = event.getStartTime().isAfter(start) ? event.getStartTime() : start;
+            Instant to = event.getEndTime().isBefore(end) ? event.getEndTime() : end;
+            if (to.isAfter(from)) {
+                total = total.plus(Duration.between(from, to));
+            }
+        }
+        return total;
+    }
+}
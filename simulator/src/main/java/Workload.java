@@ -0,0 +1,34 @@
+// Customer mixes the fleet simulator can drive
+public enum Workload {
+    // Short baskets, mostly paid with 10.00 coins so nearly every sale needs change
+    RUSH_HOUR("rush-hour", 1, 2, 0.2, 0),
+    // Customers who mostly insert the exact amount
+    EXACT_CHANGE("exact-change", 1, 3, 0.9, 0),
+    // Office pantry style baskets of many items
+    BULK_BASKETS("bulk-baskets", 5, 10, 0.3, 0),
+    // Regular traffic with an operator restocking each machine every few sales
+    RESTOCKING("restocking", 1, 3, 0.3, 5);
+
+    final String name;
+    final int minItems;
+    final int maxItems;
+    final double exactChangeRatio;
+    final int restockEvery;
+
+    Workload(String name, int minItems, int maxItems, double exactChangeRatio, int restockEvery) {
+        this.name = name;
+        this.minItems = minItems;
+        this.maxItems = maxItems;
+        this.exactChangeRatio = exactChangeRatio;
+        this.restockEvery = restockEvery;
+    }
+
+    static Workload fromName(String name) {
+        for (Workload workload : values()) {
+            if (workload.name.equals(name)) {
+                return workload;
+            }
+        }
+        throw new IllegalArgumentException("Unknown workload: " + name);
+    }
+}
@@ -1,4 +1,12 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import models.*;
 import services.*;
 import states.*;
@@ -27,6 +35,30 @@ public class App {
         runTest("TestCase13: Vault Protection (Capacity Full)", App::testCase13_VaultCapacityExceeded);
         runTest("TestCase14: Multi-Select Continuity", App::testCase14_MultiSelectContinuity);
         runTest("TestCase15: Overpayment & Change Distribution", App::testCase15_OverpaymentChange);
+        runTest("TestCase16: Non-Greedy Change (4s and 3s)", App::testCase16_NonGreedyChange);
+        runTest("TestCase17: Array Vault Purchase", App::testCase17_ArrayVaultPurchase);
+        runTest("TestCase18: Fractional Price Change", App::testCase18_FractionalPriceChange);
+        runTest("TestCase19: Actor Mailbox Purchase", App::testCase19_ActorMailboxPurchase);
+        runTest("TestCase20: Journal Recovery After Restart", App::testCase20_JournalRecovery);
+        runTest("TestCase21: Snapshot Restart With Journal Tail", App::testCase21_SnapshotRestart);
+        runTest("TestCase22: Catalog Snapshot Isolation", App::testCase22_CatalogSnapshotIsolation);
+        runTest("TestCase23: Concurrent Reservations Never Oversell", App::testCase23_ConcurrentReservations);
+        runTest("TestCase24: Session Holds Expire", App::testCase24_SessionHoldsExpire);
+        runTest("TestCase25: Abandoned Payment Times Out", App::testCase25_AbandonedPaymentTimesOut);
+        runTest("TestCase26: Coin By Coin Payment", App::testCase26_CoinByCoinPayment);
+        runTest("TestCase27: Reused States And Transition Table", App::testCase27_ReusedStates);
+        runTest("TestCase28: Outcome Codes Instead Of Exceptions", App::testCase28_OutcomeCodes);
+        runTest("TestCase29: Event Log Ring Drops When Full", App::testCase29_EventLogRing);
+        runTest("TestCase30: Operation Metrics And Rejects", App::testCase30_OperationMetrics);
+        runTest("TestCase31: Slot Indexed Dispenser", App::testCase31_SlotIndexedDispenser);
+        runTest("TestCase32: Columnar Inventory Store", App::testCase32_ColumnarInventory);
+        runTest("TestCase33: Off-Heap Inventory Warm Start", App::testCase33_OffHeapInventory);
+        runTest("TestCase34: Cart Keeps Selected Unit Price", App::testCase34_CartUnitPrice);
+        runTest("TestCase35: Snapshot During A Checkout", App::testCase35_SnapshotDuringCheckout);
+        runTest("TestCase36: Session Holds Survive Product Changes", App::testCase36_HoldsSurviveProductChanges);
+        runTest("TestCase37: Coin By Coin Sale That Needs The Escrow", App::testCase37_CoinSaleWithEscrow);
+        runTest("TestCase38: Event Log Survives A Failing Sink", App::testCase38_EventLogSinkFailure);
+        runTest("TestCase39: Dispenser Slots Reused Under Churn", App::testCase39_SlotReuse);
 
         printSummary();
     }
@@ -38,6 +70,9 @@ public class App {
             if (!finishedProperly(name)) {
                 failedTests.add(name + " (Crashed: " + e.getMessage() + ")");
             }
+        } finally {
+            // Machine events are printed by the event log thread, wait for this test's ones
+            EventLog.shared().flush();
         }
     }
 
@@ -64,40 +99,9 @@ public class App {
         System.out.println("==========================================\n");
     }
 
+    // Coin values and inserted money are in minor units, so 1000 is a 10.00 coin
     private static VendingMachine setupVendingMachine() {
-        Denomination d10 = new Denomination(1, 10, 100);
-        d10.addMoney(50);
-        DenominationChainService chain10 = new DenominationChainService(d10);
-
-        Denomination d5 = new Denomination(2, 5, 100);
-        d5.addMoney(50); // Add 50 coins of 5 (50% capacity)
-        DenominationChainService chain5 = new DenominationChainService(d5);
-
-        Denomination d1 = new Denomination(3, 1, 500);
-        d1.addMoney(100); // Add 100 coins of 1 (20% capacity)
-        DenominationChainService chain1 = new DenominationChainService(d1);
-
-        chain10.setNext(chain5);
-        chain5.setNext(chain1);
-
-        DenominationService denominationService = new DenominationService(chain10);
-        Dispenser dispenser = new Dispenser(1);
-        DispenserService dispenserService = new DispenserService(dispenser);
-
-        Product p1 = new Product(101, "Coke", 15.0, 10, 10);
-        Product p2 = new Product(102, "Pepsi", 12.0, 5, 5);
-        Product p3 = new Product(103, "Water", 10.0, 20, 20);
-
-        dispenser.addProduct(p1);
-        dispenser.addProduct(p2);
-        dispenser.addProduct(p3);
-
-        SelectProductService selectProductService = new SelectProductService(dispenser);
-
-        VendingMachine vm = new VendingMachine(1, dispenserService, denominationService, selectProductService);
-        vm.setState(new IdleState(selectProductService, dispenserService));
-
-        return vm;
+        return VendingMachineFactory.createStandardMachine(1);
     }
 
     private static void testCase1_SuccessfulPurchase() {
@@ -109,7 +113,7 @@ public class App {
             vm.selectProduct(101, 1);
             vm.confirmInsertMoney();
             Map<Integer, Integer> money = new HashMap<>();
-            money.put(10, 2); // 20 units
+            money.put(1000, 2); // 20 units
             vm.insertMoney(money);
             vm.processTransaction();
             System.out.println("[RESULT]: Success");
@@ -130,7 +134,7 @@ public class App {
             vm.selectProduct(103, 1); // Price 10
             vm.confirmInsertMoney();
             Map<Integer, Integer> money = new HashMap<>();
-            money.put(5, 1); // Only 5 units
+            money.put(500, 1); // Only 5 units
             vm.insertMoney(money);
             vm.processTransaction();
             System.out.println("[RESULT]: Failed (Allowed transaction with insufficient money)");
@@ -151,7 +155,7 @@ public class App {
             vm.selectProduct(102, 10); // 10 requested, 5 available
             vm.confirmInsertMoney();
             Map<Integer, Integer> money = new HashMap<>();
-            money.put(10, 15);
+            money.put(1000, 15);
             vm.insertMoney(money);
             vm.processTransaction();
             System.out.println("[RESULT]: Failed (Allowed selection of more than available items)");
@@ -174,7 +178,7 @@ public class App {
             DispenserService ds = new DispenserService(dispenser);
 
             // Change vault with NO small coins
-            Denomination d50 = new Denomination(1, 50, 10);
+            Denomination d50 = new Denomination(1, 5000, 10);
             DenominationChainService chain = new DenominationChainService(d50);
             DenominationService dns = new DenominationService(chain);
 
@@ -184,7 +188,7 @@ public class App {
             vm.selectProduct(101, 1); // Price 15
             vm.confirmInsertMoney();
             Map<Integer, Integer> money = new HashMap<>();
-            money.put(50, 1); // Insert 50, need 35 change
+            money.put(5000, 1); // Insert 50, need 35 change
             vm.insertMoney(money);
             vm.processTransaction();
             System.out.println("[RESULT]: Failed (Allowed transaction without sufficient change coins)");
@@ -206,7 +210,7 @@ public class App {
             vm.updateSelectedProduct(102, 1); // 12. Total 27
             vm.confirmInsertMoney();
             Map<Integer, Integer> money = new HashMap<>();
-            money.put(10, 3); // 30 units
+            money.put(1000, 3); // 30 units
             vm.insertMoney(money);
             vm.processTransaction();
             System.out.println("[RESULT]: Success");
@@ -264,7 +268,7 @@ public class App {
             VendingMachine vm = setupVendingMachine();
             Dispenser dispenser = new Dispenser(2);
             DispenserService ds = new DispenserService(dispenser);
-            DenominationService dns = new DenominationService(new DenominationChainService(new Denomination(1, 1, 10)));
+            DenominationService dns = new DenominationService(new DenominationChainService(new Denomination(1, 100, 10)));
 
             vm.setState(new MaintenanceState(ds, dns));
             List<Product> newLoad = new ArrayList<>();
@@ -304,7 +308,7 @@ public class App {
             vm.selectProduct(103, 1); // Price 10
             vm.confirmInsertMoney();
             Map<Integer, Integer> money = new HashMap<>();
-            money.put(10, 1); // Exact 10
+            money.put(1000, 1); // Exact 10
             vm.insertMoney(money);
             vm.processTransaction();
             System.out.println("[RESULT]: Success");
@@ -354,7 +358,7 @@ public class App {
         System.out.println("--- " + name + " ---");
         System.out.println("[EXPECTED]: Reject coins if vault capacity reached.");
         try {
-            Denomination d1 = new Denomination(1, 10, 1); // Capacity 1
+            Denomination d1 = new Denomination(1, 1000, 1); // Capacity 1
             d1.addMoney(1); // Already full
             DenominationChainService chain = new DenominationChainService(d1);
             DenominationService dns = new DenominationService(chain);
@@ -369,7 +373,7 @@ public class App {
             vm.selectProduct(101, 1);
             vm.confirmInsertMoney();
             Map<Integer, Integer> money = new HashMap<>();
-            money.put(10, 1); // Try adding 1 more while full
+            money.put(1000, 1); // Try adding 1 more while full
             vm.insertMoney(money);
             vm.processTransaction();
             System.out.println("[RESULT]: Failed (Vault exceeded capacity without error)");
@@ -391,8 +395,8 @@ public class App {
             vm.selectProduct(103, 2); // Water 10*2 = 20. Total 35
             vm.confirmInsertMoney();
             Map<Integer, Integer> money = new HashMap<>();
-            money.put(10, 3);
-            money.put(5, 1); // 35 units total
+            money.put(1000, 3);
+            money.put(500, 1); // 35 units total
             vm.insertMoney(money);
             vm.processTransaction();
             System.out.println("[RESULT]: Success");
@@ -413,7 +417,7 @@ public class App {
             vm.selectProduct(103, 1); // Water 10
             vm.confirmInsertMoney();
             Map<Integer, Integer> money = new HashMap<>();
-            money.put(10, 5); // Insert 50, need 40 change
+            money.put(1000, 5); // Insert 50, need 40 change
             vm.insertMoney(money);
             vm.processTransaction();
             System.out.println("[RESULT]: Success");
@@ -424,4 +428,1149 @@ public class App {
         }
         System.out.println();
     }
+
+    private static void testCase16_NonGreedyChange() {
+        String name = "TestCase16: Non-Greedy Change (4s and 3s)";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: Change of 6 paid as 3+3 although greedy would take the 4 first.");
+        try {
+            Denomination d10 = new Denomination(1, 1000, 10);
+            Denomination d4 = new Denomination(2, 400, 10);
+            d4.addMoney(1);
+            Denomination d3 = new Denomination(3, 300, 10);
+            d3.addMoney(2);
+
+            DenominationChainService chain10 = new DenominationChainService(d10);
+            DenominationChainService chain4 = new DenominationChainService(d4);
+            DenominationChainService chain3 = new DenominationChainService(d3);
+            chain10.setNext(chain4);
+            chain4.setNext(chain3);
+            DenominationService dns = new DenominationService(chain10);
+
+            Dispenser dispenser = new Dispenser(1);
+            dispenser.addProduct(new Product(101, "Gum", 4.0, 10, 10));
+            DispenserService ds = new DispenserService(dispenser);
+            SelectProductService sps = new SelectProductService(dispenser);
+
+            VendingMachine vm = new VendingMachine(1, ds, dns, sps);
+            vm.setState(new IdleState(sps, ds));
+
+            vm.selectProduct(101, 1);
+            vm.confirmInsertMoney();
+            Map<Integer, Integer> money = new HashMap<>();
+            money.put(1000, 1); // Insert 10, need 6 change
+            vm.insertMoney(money);
+            vm.processTransaction();
+
+            // Beyond the vault's total value, refused without growing the tables to the amount
+            boolean hugeRefused = !new BoundedChangeEngine().makeChange(Integer.MAX_VALUE - 1, new int[] { 4, 3 },
+                    new int[] { 1, 2 }, 2, new int[2]);
+
+            if (d3.getCount() == 0 && d4.getCount() == 1 && d10.getCount() == 1 && hugeRefused) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            } else {
+                System.out.println("[RESULT]: Failed (Wrong coins paid out)");
+                failedTests.add(name + " (Wrong coins paid out)");
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase17_ArrayVaultPurchase() {
+        String name = "TestCase17: Array Vault Purchase";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: Array-backed vault accepts 50 and pays 40 change for a Water.");
+        try {
+            Denomination d1 = new Denomination(1, 100, 500);
+            d1.addMoney(100);
+            Denomination d10 = new Denomination(2, 1000, 100);
+            d10.addMoney(50);
+            Denomination d5 = new Denomination(3, 500, 100);
+            d5.addMoney(50);
+            DenominationArrayService vault = new DenominationArrayService(d1, d10, d5);
+            DenominationService dns = new DenominationService(vault);
+
+            Dispenser dispenser = new Dispenser(1);
+            dispenser.addProduct(new Product(103, "Water", 10.0, 20, 20));
+            DispenserService ds = new DispenserService(dispenser);
+            SelectProductService sps = new SelectProductService(dispenser);
+
+            VendingMachine vm = new VendingMachine(1, ds, dns, sps);
+            vm.setState(new IdleState(sps, ds));
+
+            vm.selectProduct(103, 1);
+            vm.confirmInsertMoney();
+            Map<Integer, Integer> money = new HashMap<>();
+            money.put(1000, 5); // Insert 50, need 40 change
+            vm.insertMoney(money);
+            vm.processTransaction();
+
+            if (vault.getCount(1000) == 51 && vault.getCount(500) == 50 && vault.getCount(100) == 100) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            } else {
+                System.out.println("[RESULT]: Failed (Unexpected vault counts)");
+                failedTests.add(name + " (Unexpected vault counts)");
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase18_FractionalPriceChange() {
+        String name = "TestCase18: Fractional Price Change";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: Price 12.50 paid with 15.00 returns exactly 2.50 in change.");
+        try {
+            Denomination d1000 = new Denomination(1, 1000, 100);
+            Denomination d100 = new Denomination(2, 100, 100);
+            d100.addMoney(10);
+            Denomination d50 = new Denomination(3, 50, 100);
+            d50.addMoney(10);
+            DenominationArrayService vault = new DenominationArrayService(d1000, d100, d50);
+            DenominationService dns = new DenominationService(vault);
+
+            Dispenser dispenser = new Dispenser(1);
+            dispenser.addProduct(new Product(104, "Chocolate", 12.50, 10, 10));
+            DispenserService ds = new DispenserService(dispenser);
+            SelectProductService sps = new SelectProductService(dispenser);
+
+            VendingMachine vm = new VendingMachine(1, ds, dns, sps);
+            vm.setState(new IdleState(sps, ds));
+
+            vm.selectProduct(104, 1);
+            vm.confirmInsertMoney();
+            Map<Integer, Integer> money = new HashMap<>();
+            money.put(1000, 1);
+            money.put(100, 5); // 15.00 total, 2.50 change
+            vm.insertMoney(money);
+            vm.processTransaction();
+
+            if (vault.getCount(100) == 13 && vault.getCount(50) == 9) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            } else {
+                System.out.println("[RESULT]: Failed (Wrong change paid out)");
+                failedTests.add(name + " (Wrong change paid out)");
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase19_ActorMailboxPurchase() {
+        String name = "TestCase19: Actor Mailbox Purchase";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: Commands sent from several threads run in order on the machine mailbox.");
+        try {
+            VendingMachineActor actor = new VendingMachineActor(setupVendingMachine());
+            Map<Integer, Integer> money = new HashMap<>();
+            money.put(1000, 2);
+
+            // Each command is sent from its own thread, but only after the previous one was queued
+            CompletableFuture<Void> sale = CompletableFuture
+                    .supplyAsync(() -> actor.selectProduct(101, 1))
+                    .thenCompose(selected -> CompletableFuture.supplyAsync(actor::confirmInsertMoney))
+                    .thenCompose(confirmed -> CompletableFuture.supplyAsync(() -> actor.insertMoney(money)))
+                    .thenCompose(inserted -> CompletableFuture.supplyAsync(actor::processTransaction))
+                    .thenCompose(processed -> processed);
+            sale.get(5, TimeUnit.SECONDS);
+
+            try {
+                actor.processTransaction().get(5, TimeUnit.SECONDS);
+                System.out.println("[RESULT]: Failed (Second checkout accepted)");
+                failedTests.add(name + " (Second checkout accepted)");
+            } catch (ExecutionException e) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase20_JournalRecovery() {
+        String name = "TestCase20: Journal Recovery After Restart";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: A fresh machine replaying the journal ends with the stock and coins of the old one.");
+        try {
+            Path path = Files.createTempFile("vending-journal", ".bin");
+            try {
+                VendingMachine vm = setupVendingMachine();
+                TransactionJournal journal = new TransactionJournal(path);
+                vm.setJournal(journal);
+
+                vm.selectProduct(101, 2); // 30
+                vm.confirmInsertMoney();
+                Map<Integer, Integer> money = new HashMap<>();
+                money.put(1000, 4); // 40, change 10
+                vm.insertMoney(money);
+                vm.processTransaction();
+                journal.close();
+
+                VendingMachine restarted = setupVendingMachine();
+                TransactionJournal reopened = new TransactionJournal(path);
+                restarted.setJournal(reopened);
+                int replayed = restarted.recoverFromJournal();
+                reopened.close();
+
+                // A partial group is forced by the timer once its delay passes, without waiting for another sale
+                long[] now = {0};
+                TimingWheel wheel = new TimingWheel(TimeUnit.MILLISECONDS.toNanos(1), () -> now[0]);
+                TransactionJournal grouped = new TransactionJournal(path, 32, TimeUnit.SECONDS.toNanos(1));
+                grouped.setFlushTimer(wheel);
+                grouped.checkpoint(vm.getDispenserService(), vm.getDenominationService());
+                boolean pending = grouped.getUnforcedRecords() == 1;
+                now[0] = TimeUnit.SECONDS.toNanos(2);
+                wheel.advanceTo(now[0]);
+                boolean forced = pending && grouped.getUnforcedRecords() == 0;
+                grouped.close();
+
+                IntIntMap expectedCoins = new IntIntMap();
+                IntIntMap recoveredCoins = new IntIntMap();
+                vm.getDenominationService().collectCounts(expectedCoins);
+                restarted.getDenominationService().collectCounts(recoveredCoins);
+                int expectedCokes = vm.getDispenserService().getProduct(101).getQuantity();
+                int recoveredCokes = restarted.getDispenserService().getProduct(101).getQuantity();
+
+                if (replayed == 1 && forced && recoveredCokes == expectedCokes
+                        && recoveredCoins.toString().equals(expectedCoins.toString())) {
+                    System.out.println("[RESULT]: Success");
+                    passedTests.add(name);
+                } else {
+                    System.out.println("[RESULT]: Failed (Recovered " + recoveredCokes + " cokes and " + recoveredCoins
+                            + ", expected " + expectedCokes + " and " + expectedCoins + ", partial group forced: "
+                            + forced + ")");
+                    failedTests.add(name + " (State not recovered)");
+                }
+            } finally {
+                Files.deleteIfExists(path);
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase21_SnapshotRestart() {
+        String name = "TestCase21: Snapshot Restart With Journal Tail";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: Snapshot plus the sales journaled after it rebuild stock and coins.");
+        try {
+            Path snapshotPath = Files.createTempFile("vending-snapshot", ".bin");
+            Path journalPath = Files.createTempFile("vending-journal", ".bin");
+            try {
+                VendingMachine vm = setupVendingMachine();
+                TransactionJournal journal = new TransactionJournal(journalPath);
+                vm.setJournal(journal);
+
+                vm.selectProduct(103, 1); // 10
+                vm.confirmInsertMoney();
+                Map<Integer, Integer> money = new HashMap<>();
+                money.put(1000, 1);
+                vm.insertMoney(money);
+                vm.processTransaction();
+                vm.saveSnapshot(snapshotPath);
+
+                vm.selectProduct(101, 1); // 15, sold after the snapshot
+                vm.confirmInsertMoney();
+                money = new HashMap<>();
+                money.put(1000, 2); // change 5
+                vm.insertMoney(money);
+                vm.processTransaction();
+                journal.close();
+
+                TransactionJournal reopened = new TransactionJournal(journalPath);
+                VendingMachine restarted = VendingMachineFactory.fromSnapshot(snapshotPath, reopened);
+                reopened.close();
+
+                IntIntMap expectedCoins = new IntIntMap();
+                IntIntMap recoveredCoins = new IntIntMap();
+                vm.getDenominationService().collectCounts(expectedCoins);
+                restarted.getDenominationService().collectCounts(recoveredCoins);
+                boolean stockMatches = true;
+                for (int id = 101; id <= 103; id++) {
+                    stockMatches &= vm.getDispenserService().getProduct(id).getQuantity() == restarted
+                            .getDispenserService().getProduct(id).getQuantity();
+                }
+
+                if (stockMatches && recoveredCoins.toString().equals(expectedCoins.toString())) {
+                    System.out.println("[RESULT]: Success");
+                    passedTests.add(name);
+                } else {
+                    System.out.println("[RESULT]: Failed (Recovered coins " + recoveredCoins + ", expected "
+                            + expectedCoins + ", stock matches " + stockMatches + ")");
+                    failedTests.add(name + " (State not recovered)");
+                }
+            } finally {
+                Files.deleteIfExists(snapshotPath);
+                Files.deleteIfExists(journalPath);
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase22_CatalogSnapshotIsolation() {
+        String name = "TestCase22: Catalog Snapshot Isolation";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: A catalog taken before a sale keeps its quantities, a newer one sees the sale.");
+        try {
+            VendingMachine vm = setupVendingMachine();
+            CatalogSnapshot before = vm.getDispenserService().getCatalog();
+
+            vm.selectProduct(103, 2); // 20
+            vm.confirmInsertMoney();
+            Map<Integer, Integer> money = new HashMap<>();
+            money.put(1000, 2);
+            vm.insertMoney(money);
+            vm.processTransaction();
+
+            CatalogSnapshot after = vm.getDispenserService().getCatalog();
+            if (before.get(103).getQuantity() == 20 && after.get(103).getQuantity() == 18
+                    && after.getVersion() > before.getVersion() && after.get(101) == before.get(101)) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            } else {
+                System.out.println("[RESULT]: Failed (Before " + before.get(103) + ", after " + after.get(103) + ")");
+                failedTests.add(name + " (Snapshot changed or sale missing)");
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase23_ConcurrentReservations() {
+        String name = "TestCase23: Concurrent Reservations Never Oversell";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: 8 threads racing for 5 Pepsi with Coke in the same cart sell exactly 5 carts.");
+        try {
+            Dispenser dispenser = new Dispenser(1);
+            dispenser.addProduct(new Product(101, "Coke", 15.0, 10, 10));
+            dispenser.addProduct(new Product(102, "Pepsi", 12.0, 5, 5));
+            IntIntMap cart = new IntIntMap();
+            cart.put(101, 1);
+            cart.put(102, 1);
+
+            AtomicInteger sold = new AtomicInteger();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        if (dispenser.reserveProducts(cart)) {
+                            sold.incrementAndGet();
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            int pepsi = dispenser.getProduct(102).getQuantity();
+            int coke = dispenser.getProduct(101).getQuantity();
+            if (sold.get() == 5 && pepsi == 0 && coke == 5 && dispenser.snapshot().get(101).getQuantity() == 5) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            } else {
+                System.out.println("[RESULT]: Failed (Sold " + sold.get() + ", Pepsi " + pepsi + ", Coke " + coke + ")");
+                failedTests.add(name + " (Oversold or stock lost)");
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase24_SessionHoldsExpire() {
+        String name = "TestCase24: Session Holds Expire";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: A second screen cannot take held Pepsi until the first screen's hold expires.");
+        try {
+            VendingMachine vm = setupVendingMachine();
+            long[] now = { 0 };
+            SessionService sessions = new SessionService(vm.getDispenserService(), vm.getDenominationService(), 1000,
+                    () -> now[0]);
+            vm.setSessionService(sessions);
+
+            CartSession first = sessions.openSession();
+            sessions.selectProduct(first.getId(), 102, 4); // 4 of the 5 Pepsi held until 1000
+            now[0] = 600;
+            CartSession second = sessions.openSession(); // open until 1600
+
+            boolean blocked = false;
+            try {
+                sessions.selectProduct(second.getId(), 102, 2);
+            } catch (IllegalArgumentException e) {
+                blocked = true;
+            }
+
+            now[0] = 1500; // first screen walked away
+            sessions.selectProduct(second.getId(), 102, 2);
+            Map<Integer, Integer> money = new HashMap<>();
+            money.put(1000, 3); // 30 for 24, change 6
+            sessions.checkout(second.getId(), IntIntMap.of(money));
+
+            // On a wheel advanced by its own thread, here by hand, a session nobody touches again still expires
+            long[] wheelNow = { 0 };
+            TimingWheel wheel = new TimingWheel(100, () -> wheelNow[0]);
+            SessionService kiosk = new SessionService(vm.getDispenserService(), vm.getDenominationService(), 1000,
+                    wheel);
+            CartSession abandoned = kiosk.openSession();
+            kiosk.selectProduct(abandoned.getId(), 101, 1);
+            wheelNow[0] = 1100;
+            wheel.advanceTo(wheelNow[0]);
+            boolean expiredByWheel = abandoned.isClosed() && vm.getDispenserService().getProduct(101).getHeld() == 0;
+
+            int pepsi = vm.getDispenserService().getProduct(102).getQuantity();
+            int held = vm.getDispenserService().getProduct(102).getHeld();
+            if (blocked && expiredByWheel && first.isClosed() && pepsi == 3 && held == 0
+                    && sessions.activeSessions() == 0) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            } else {
+                System.out.println("[RESULT]: Failed (Blocked " + blocked + ", Pepsi " + pepsi + ", held " + held
+                        + ", expired by wheel " + expiredByWheel + ")");
+                failedTests.add(name + " (Hold not enforced or not reclaimed)");
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase25_AbandonedPaymentTimesOut() {
+        String name = "TestCase25: Abandoned Payment Times Out";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: A customer who inserts coins and walks away gets them back and the machine idles.");
+        try {
+            VendingMachine vm = setupVendingMachine();
+            long[] now = { 0 };
+            TimingWheel wheel = new TimingWheel(TimeUnit.SECONDS.toNanos(1), () -> now[0]);
+            vm.setSessionTimeout(wheel, 30, TimeUnit.SECONDS);
+            IntIntMap vaultBefore = new IntIntMap();
+            vm.getDenominationService().collectCounts(vaultBefore);
+
+            vm.selectProduct(101, 1);
+            vm.confirmInsertMoney();
+            now[0] = TimeUnit.SECONDS.toNanos(20);
+            wheel.advanceTo(now[0]);
+            Map<Integer, Integer> money = new HashMap<>();
+            money.put(500, 2); // timer restarts, due at 50 s
+            vm.insertMoney(money);
+
+            now[0] = TimeUnit.SECONDS.toNanos(45);
+            boolean earlyExpiry = wheel.advanceTo(now[0]) != 0;
+            now[0] = TimeUnit.SECONDS.toNanos(51);
+            wheel.advanceTo(now[0]);
+
+            // A failing task reaches the failure handler with its stack trace and the next task still runs
+            Throwable[] reported = new Throwable[1];
+            boolean[] ranAfter = { false };
+            wheel.setFailureHandler((thread, e) -> reported[0] = e);
+            wheel.schedule(() -> {
+                throw new IllegalStateException("Broken task");
+            }, 1, TimeUnit.SECONDS);
+            wheel.schedule(() -> ranAfter[0] = true, 1, TimeUnit.SECONDS);
+            now[0] = TimeUnit.SECONDS.toNanos(53);
+            wheel.advanceTo(now[0]);
+            boolean failureReported = reported[0] instanceof IllegalStateException
+                    && reported[0].getStackTrace().length > 0 && ranAfter[0];
+
+            IntIntMap vaultAfter = new IntIntMap();
+            vm.getDenominationService().collectCounts(vaultAfter);
+            IntIntMap refund = vm.getLastRefund();
+            if (!earlyExpiry && failureReported && vm.state instanceof IdleState && refund != null
+                    && refund.get(500) == 2 && vm.getSelectProductService().getItemCount() == 0
+                    && vaultAfter.toString().equals(vaultBefore.toString()) && wheel.pending() == 0) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            } else {
+                System.out.println("[RESULT]: Failed (Early " + earlyExpiry + ", state " + vm.state + ", refund "
+                        + refund + ", failure reported " + failureReported + ")");
+                failedTests.add(name + " (Session not expired correctly)");
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase26_CoinByCoinPayment() {
+        String name = "TestCase26: Coin By Coin Payment";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: Unknown coin refused, amount due drops per coin, sale completes on the last coin.");
+        try {
+            VendingMachine vm = setupVendingMachine();
+            vm.selectProduct(101, 1); // 15
+            vm.confirmInsertMoney();
+
+            boolean first = vm.insertCoin(1000);
+            long dueAfterFirst = vm.getAmountDue();
+            boolean unknown = vm.insertCoin(2000); // no such coin in the vault
+            boolean last = vm.insertCoin(500);
+
+            int cokes = vm.getDispenserService().getProduct(101).getQuantity();
+            if (first && dueAfterFirst == 500 && !unknown && last && cokes == 9 && vm.state instanceof IdleState) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            } else {
+                System.out.println("[RESULT]: Failed (Due " + dueAfterFirst + ", unknown accepted " + unknown
+                        + ", cokes " + cokes + ")");
+                failedTests.add(name + " (Streaming payment failed)");
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase27_ReusedStates() {
+        String name = "TestCase27: Reused States And Transition Table";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: Two sales go through the same state objects, an illegal transition is refused.");
+        try {
+            VendingMachine vm = setupVendingMachine();
+            VendingMachineState idle = vm.state;
+            vm.selectProduct(103, 1);
+            vm.confirmInsertMoney();
+            VendingMachineState insertMoney = vm.state;
+            vm.insertMoney(Map.of(1000, 1));
+            VendingMachineState processTransaction = vm.state;
+            vm.processTransaction();
+
+            vm.selectProduct(103, 1);
+            vm.confirmInsertMoney();
+            boolean sameInsertMoney = vm.state == insertMoney;
+            vm.insertMoney(Map.of(1000, 1));
+            boolean sameProcessTransaction = vm.state == processTransaction;
+            vm.processTransaction();
+            boolean sameIdle = vm.state == idle;
+
+            boolean refused = false;
+            try {
+                vm.processTransaction(); // idle state has nothing to pay for
+            } catch (UnsupportedOperationException e) {
+                refused = true;
+            }
+            boolean tableRefuses = !Transition.COMPLETE_SALE.isAllowed(StateKind.IDLE)
+                    && Transition.CANCEL.isAllowed(StateKind.INSERT_MONEY);
+
+            if (sameInsertMoney && sameProcessTransaction && sameIdle && refused && tableRefuses
+                    && vm.getStateKind() == StateKind.IDLE) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            } else {
+                System.out.println("[RESULT]: Failed (Same states " + sameInsertMoney + "/" + sameProcessTransaction
+                        + "/" + sameIdle + ", refused " + refused + ")");
+                failedTests.add(name + " (States were not reused)");
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase28_OutcomeCodes() {
+        String name = "TestCase28: Outcome Codes Instead Of Exceptions";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: Every rejection is reported as an outcome, then a valid sale returns OK.");
+        try {
+            VendingMachine vm = setupVendingMachine();
+            Outcome invalidQuantity = vm.trySelectProduct(101, 0);
+            Outcome outOfStock = vm.trySelectProduct(102, 6); // only 5 Pepsi
+            Outcome invalidState = vm.tryProcessTransaction();
+
+            vm.trySelectProduct(101, 1); // 15
+            vm.tryConfirmInsertMoney();
+            vm.tryInsertMoney(IntIntMap.of(Map.of(1000, 1)));
+            Outcome insufficientFunds = vm.tryProcessTransaction();
+            boolean stillPaying = vm.getStateKind() == StateKind.PROCESS_TRANSACTION;
+            Outcome ok = vm.tryInsertMoney(IntIntMap.of(Map.of(1000, 2)));
+            Outcome sold = vm.tryProcessTransaction();
+
+            int cokes = vm.getDispenserService().getProduct(101).getQuantity();
+            if (invalidQuantity == Outcome.INVALID_QUANTITY && outOfStock == Outcome.OUT_OF_STOCK
+                    && invalidState == Outcome.INVALID_STATE && insufficientFunds == Outcome.INSUFFICIENT_FUNDS
+                    && stillPaying && ok == Outcome.OK && sold == Outcome.OK && cokes == 9
+                    && vm.getStateKind() == StateKind.IDLE) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            } else {
+                System.out.println("[RESULT]: Failed (" + invalidQuantity + ", " + outOfStock + ", " + invalidState
+                        + ", " + insufficientFunds + ", " + sold + ", cokes " + cokes + ")");
+                failedTests.add(name + " (Unexpected outcome)");
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase29_EventLogRing() {
+        String name = "TestCase29: Event Log Ring Drops When Full";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: A full ring drops new events without blocking, drained events arrive in order.");
+        try {
+            List<Long> received = new ArrayList<>();
+            EventLog log = new EventLog(4, (timestamp, type, a, b) -> received.add(a));
+            int accepted = 0;
+            for (int i = 1; i <= 6; i++) {
+                if (log.publish(EventLog.AMOUNT_DUE, i, 0)) {
+                    accepted++;
+                }
+            }
+            int drained = log.drain();
+            boolean acceptedAfterDrain = log.publish(EventLog.AMOUNT_DUE, 7, 0);
+            log.drain();
+
+            if (accepted == 4 && log.getDropped() == 2 && drained == 4 && acceptedAfterDrain
+                    && received.equals(List.of(1L, 2L, 3L, 4L, 7L))) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            } else {
+                System.out.println("[RESULT]: Failed (Accepted " + accepted + ", dropped " + log.getDropped()
+                        + ", received " + received + ")");
+                failedTests.add(name + " (Ring did not behave)");
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase30_OperationMetrics() {
+        String name = "TestCase30: Operation Metrics And Rejects";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: Every operation and sale phase is timed, rejects are counted by reason.");
+        try {
+            VendingMachine vm = setupVendingMachine();
+            MachineMetrics metrics = new MachineMetrics();
+            vm.setMetrics(metrics);
+
+            vm.selectProduct(101, 1); // 15
+            vm.confirmInsertMoney();
+            vm.insertMoney(Map.of(1000, 2));
+            vm.processTransaction();
+            try {
+                vm.selectProduct(102, 6); // only 5 Pepsi
+            } catch (IllegalArgumentException e) {
+                // counted below
+            }
+            vm.tryProcessTransaction(); // idle
+
+            MachineMetrics.Snapshot interval = metrics.snapshotAndReset();
+            boolean timed = interval.getLatency(MachineMetrics.Operation.SELECT_PRODUCT).count() == 2
+                    && interval.getLatency(MachineMetrics.Operation.INSERT_MONEY).count() == 1
+                    && interval.getLatency(MachineMetrics.Operation.PROCESS_TRANSACTION).count() == 2
+                    && interval.getLatency(MachineMetrics.Operation.VAULT_PLAN).count() == 1
+                    && interval.getLatency(MachineMetrics.Operation.VAULT_COMMIT).count() == 1
+                    && interval.getLatency(MachineMetrics.Operation.DISPENSE).count() == 1;
+            boolean rejects = interval.getRejects(Outcome.OUT_OF_STOCK) == 1
+                    && interval.getRejects(Outcome.INVALID_STATE) == 1 && interval.getTotalRejects() == 2;
+            boolean reset = metrics.snapshot().getTotalRejects() == 0
+                    && metrics.snapshot().getLatency(MachineMetrics.Operation.SELECT_PRODUCT).count() == 0;
+
+            if (timed && rejects && reset) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            } else {
+                System.out.println("[RESULT]: Failed (Timed " + timed + ", rejects " + rejects + ", reset " + reset
+                        + ")");
+                failedTests.add(name + " (Metrics incomplete)");
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase31_SlotIndexedDispenser() {
+        String name = "TestCase31: Slot Indexed Dispenser";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: Dense and scattered product ids resolve, removed ids do not, a dispense"
+                + " larger than the stock leaves it untouched.");
+        try {
+            Dispenser dense = new Dispenser(1);
+            dense.addProduct(new Product(101, "Coke", 15, 10, 20));
+            dense.addProduct(new Product(102, "Pepsi", 12, 5, 20));
+            dense.addProduct(new Product(103, "Water", 10, 8, 20));
+            dense.removeProduct(102);
+            boolean lookups = dense.getProduct(101).getName().equals("Coke") && dense.getProduct(102) == null
+                    && dense.getProduct(103).getName().equals("Water") && dense.getProduct(100) == null
+                    && dense.getProduct(104) == null && dense.getProducts().size() == 2;
+
+            Dispenser sparse = new Dispenser(2);
+            sparse.addProducts(List.of(new Product(7, "Gum", 5, 3, 10), new Product(1_000_000, "Chips", 20, 4, 10)));
+            sparse.addProduct(new Product(7, "Mint", 6, 2, 10)); // restocked slot keeps its place
+            boolean scattered = sparse.getProduct(7).getName().equals("Mint")
+                    && sparse.getProduct(1_000_000).getName().equals("Chips") && sparse.getProduct(8) == null
+                    && sparse.getProducts().size() == 2;
+
+            boolean dispensed = dense.tryDispenseProduct(101, 4) && dense.getProduct(101).getQuantity() == 6
+                    && !dense.tryDispenseProduct(101, 7) && dense.getProduct(101).getQuantity() == 6
+                    && !dense.tryDispenseProduct(102, 1) && !dense.tryDispenseProduct(103, 0)
+                    && dense.snapshot().get(101).getQuantity() == 6;
+
+            if (lookups && scattered && dispensed) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            } else {
+                System.out.println("[RESULT]: Failed (Lookups " + lookups + ", scattered " + scattered
+                        + ", dispensed " + dispensed + ")");
+                failedTests.add(name + " (Slot index inconsistent)");
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase32_ColumnarInventory() {
+        String name = "TestCase32: Columnar Inventory Store";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: Two machines on one store sell independently, names are stored once.");
+        try {
+            InventoryStore store = new InventoryStore();
+            VendingMachine first = VendingMachineFactory.createStandardMachine(1, store);
+            VendingMachine second = VendingMachineFactory.createStandardMachine(2, store);
+
+            first.selectProduct(101, 2); // 30
+            first.confirmInsertMoney();
+            first.insertMoney(Map.of(1000, 3));
+            first.processTransaction();
+            Outcome tooMany = second.trySelectProduct(102, 6); // only 5 Pepsi
+
+            DispenserService firstService = first.getDispenserService();
+            DispenserService secondService = second.getDispenserService();
+            boolean sold = firstService.getProduct(101).getQuantity() == 8
+                    && secondService.getProduct(101).getQuantity() == 10 && tooMany == Outcome.OUT_OF_STOCK
+                    && firstService.getCatalog().get(101).getQuantity() == 8;
+            boolean shared = store.getRowCount() == 6 && store.getNameCount() == 3;
+
+            if (sold && shared) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            } else {
+                System.out.println("[RESULT]: Failed (Sold " + sold + ", shared " + shared + ")");
+                failedTests.add(name + " (Columnar inventory inconsistent)");
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase33_OffHeapInventory() {
+        String name = "TestCase33: Off-Heap Inventory Warm Start";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: A machine sells from a mapped table, and reopening the file restores every"
+                + " machine's stock without its removed products or stale holds.");
+        try {
+            Path file = Files.createTempFile("inventory", ".tbl");
+            try {
+                boolean sold;
+                try (OffHeapInventoryStore store = OffHeapInventoryStore.map(file)) {
+                    VendingMachine first = VendingMachineFactory.createStandardMachine(1, store);
+                    VendingMachine second = VendingMachineFactory.createStandardMachine(2, store);
+                    first.selectProduct(103, 3); // 30
+                    first.confirmInsertMoney();
+                    first.insertMoney(Map.of(1000, 3));
+                    first.processTransaction();
+                    second.getDispenserService().removeProduct(102);
+                    // Held by a kiosk session that will not survive the restart
+                    boolean held = ColumnarDispenser.restoreFleet(store).get(1).holdProduct(101, 2);
+                    sold = held && first.getDispenserService().getProduct(103).getQuantity() == 17
+                            && second.trySelectProduct(102, 1) == Outcome.OUT_OF_STOCK;
+                }
+
+                boolean restored;
+                try (OffHeapInventoryStore store = OffHeapInventoryStore.map(file)) {
+                    Map<Integer, ColumnarDispenser> fleet = ColumnarDispenser.restoreFleet(store);
+                    ColumnarDispenser first = fleet.get(1);
+                    ColumnarDispenser second = fleet.get(2);
+                    restored = fleet.size() == 2 && store.getRowCount() == 6
+                            && first.getProduct(103).getQuantity() == 17
+                            && first.getProduct(103).getName().equals("Water")
+                            && first.getProduct(101).getPrice() == 1500 && first.getProduct(101).getHeld() == 0
+                            && first.canDispenseProduct(101, 10) && second.getProduct(102) == null
+                            && second.getProducts().size() == 2 && second.tryDispenseProduct(101, 10)
+                            && !second.tryDispenseProduct(101, 1);
+                }
+
+                if (sold && restored) {
+                    System.out.println("[RESULT]: Success");
+                    passedTests.add(name);
+                } else {
+                    System.out.println("[RESULT]: Failed (Sold " + sold + ", restored " + restored + ")");
+                    failedTests.add(name + " (Off-heap inventory inconsistent)");
+                }
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase34_CartUnitPrice() {
+        String name = "TestCase34: Cart Keeps Selected Unit Price";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: Removing a line whose product left the dispenser takes it off the total at the"
+                + " price it was selected at.");
+        try {
+            Dispenser dispenser = new Dispenser(2);
+            dispenser.addProduct(new Product(101, "Coke", 15.0, 10, 10));
+            dispenser.addProduct(new Product(103, "Water", 10.0, 10, 10));
+            SelectProductService cart = new SelectProductService(dispenser);
+            cart.selectProduct(101, 2);
+            cart.selectProduct(103, 1);
+            dispenser.removeProduct(101);
+            cart.removeProduct(101);
+
+            if (cart.getTotalPrice() == 1000 && cart.getItemCount() == 1) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            } else {
+                System.out.println("[RESULT]: Failed (Total " + cart.getTotalPrice() + " after removing a line)");
+                failedTests.add(name + " (Cart total out of step)");
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase35_SnapshotDuringCheckout() {
+        String name = "TestCase35: Snapshot During A Checkout";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: A kiosk sale racing a snapshot is restored exactly once, from the snapshot or"
+                + " from the journal.");
+        try {
+            Path snapshotPath = Files.createTempFile("vending-snapshot", ".bin");
+            Path journalPath = Files.createTempFile("vending-journal", ".bin");
+            try {
+                VendingMachine vm = setupVendingMachine();
+                TransactionJournal journal = new TransactionJournal(journalPath);
+                vm.setJournal(journal);
+                SessionService sessions = vm.getSessionService();
+                CartSession kiosk = sessions.openSession();
+                sessions.selectProduct(kiosk.getId(), 103, 2); // 20
+
+                RuntimeException[] failure = new RuntimeException[1];
+                Thread checkout = new Thread(() -> {
+                    try {
+                        sessions.checkout(kiosk.getId(), IntIntMap.of(Map.of(1000, 2)));
+                    } catch (RuntimeException e) {
+                        failure[0] = e;
+                    }
+                });
+                synchronized (journal) {
+                    checkout.start();
+                    // Gives the checkout time to change coins or stock if it could without the journal's lock
+                    checkout.join(200);
+                    vm.saveSnapshot(snapshotPath);
+                }
+                checkout.join();
+                journal.close();
+
+                TransactionJournal reopened = new TransactionJournal(journalPath);
+                VendingMachine restarted = VendingMachineFactory.fromSnapshot(snapshotPath, reopened);
+                reopened.close();
+
+                IntIntMap expectedCoins = new IntIntMap();
+                IntIntMap recoveredCoins = new IntIntMap();
+                vm.getDenominationService().collectCounts(expectedCoins);
+                restarted.getDenominationService().collectCounts(recoveredCoins);
+                int expectedWater = vm.getDispenserService().getQuantity(103);
+                int recoveredWater = restarted.getDispenserService().getQuantity(103);
+
+                if (failure[0] == null && expectedWater == 18 && recoveredWater == expectedWater
+                        && recoveredCoins.toString().equals(expectedCoins.toString())) {
+                    System.out.println("[RESULT]: Success");
+                    passedTests.add(name);
+                } else {
+                    System.out.println("[RESULT]: Failed (Recovered " + recoveredWater + " water and " + recoveredCoins
+                            + ", expected " + expectedWater + " and " + expectedCoins + ", checkout failure "
+                            + failure[0] + ")");
+                    failedTests.add(name + " (Sale restored twice or lost)");
+                }
+            } finally {
+                Files.deleteIfExists(snapshotPath);
+                Files.deleteIfExists(journalPath);
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase36_HoldsSurviveProductChanges() {
+        String name = "TestCase36: Session Holds Survive Product Changes";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: Holds move to a replacing product or row and giving them back never makes"
+                + " more stock available than the slot has.");
+        try {
+            VendingMachine vm = setupVendingMachine();
+            long[] now = { 0 };
+            SessionService sessions = new SessionService(vm.getDispenserService(), vm.getDenominationService(), 1000,
+                    () -> now[0]);
+            vm.setSessionService(sessions);
+            CartSession kiosk = sessions.openSession();
+            sessions.selectProduct(kiosk.getId(), 102, 3);
+            vm.getDispenserService().addProduct(new Product(102, "Pepsi", 12.0, 5, 5)); // maintenance refill
+            boolean carried = vm.getDispenserService().getProduct(102).getHeld() == 3;
+            sessions.closeSession(kiosk.getId());
+            Product pepsi = vm.getDispenserService().getProduct(102);
+            boolean released = pepsi.getHeld() == 0 && pepsi.getAvailable() == 5;
+
+            // A session whose product was removed still expires and gives back the holds of its other lines
+            CartSession mixed = sessions.openSession();
+            sessions.selectProduct(mixed.getId(), 101, 1);
+            sessions.selectProduct(mixed.getId(), 103, 2);
+            vm.getDispenserService().removeProduct(101);
+            boolean checkoutRefused = false;
+            try {
+                sessions.checkout(mixed.getId(), IntIntMap.of(Map.of(1000, 4)));
+            } catch (IllegalArgumentException e) {
+                checkoutRefused = true;
+            }
+            now[0] = 2000;
+            sessions.reclaimExpired();
+            boolean expiredWithoutProduct = checkoutRefused && mixed.isClosed()
+                    && vm.getDispenserService().getProduct(103).getHeld() == 0;
+
+            // A line removed after a price change comes off the total at the price it was selected at
+            CartSession repriced = sessions.openSession();
+            sessions.selectProduct(repriced.getId(), 103, 2); // 20
+            sessions.selectProduct(repriced.getId(), 102, 1); // 12
+            vm.getDispenserService().addProduct(new Product(103, "Water", 20.0, 20, 20));
+            sessions.removeProduct(repriced.getId(), 103);
+            boolean priceKept = repriced.getTotalPrice() == 1200
+                    && vm.getDispenserService().getProduct(103).getHeld() == 0;
+
+            // A release larger than the hold clamps instead of borrowing from the quantity
+            Product water = new Product(103, "Water", 10.0, 4, 10);
+            water.tryHold(1);
+            water.releaseHold(3);
+            water.consumeHold(2);
+            boolean clamped = water.getQuantity() == 4 && water.getHeld() == 0 && water.getAvailable() == 4;
+
+            InventoryStore store = new InventoryStore();
+            ColumnarDispenser columnar = new ColumnarDispenser(7, store);
+            columnar.addProduct(new Product(101, "Coke", 15.0, 6, 10));
+            columnar.holdProduct(101, 2);
+            columnar.addProduct(new Product(101, "Coke", 15.0, 10, 10));
+            boolean rowCarried = columnar.getProduct(101).getHeld() == 2;
+            columnar.releaseHeld(IntIntMap.of(Map.of(101, 5, 999, 1))); // 999 is not in the dispenser
+            boolean rowReleased = columnar.getProduct(101).getHeld() == 0 && columnar.getQuantity(101) == 10;
+
+            if (carried && released && expiredWithoutProduct && priceKept && clamped && rowCarried && rowReleased) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            } else {
+                System.out.println("[RESULT]: Failed (Carried " + carried + ", released " + released
+                        + ", expired without product " + expiredWithoutProduct + ", price kept " + priceKept
+                        + ", clamped " + clamped
+                        + ", row carried " + rowCarried + ", row released " + rowReleased + ")");
+                failedTests.add(name + " (Holds lost or stock oversold)");
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase37_CoinSaleWithEscrow() {
+        String name = "TestCase37: Coin By Coin Sale That Needs The Escrow";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: Change paid from the inserted coins completes the sale, a sale that fails on"
+                + " the last coin keeps the coins in escrow until cancel.");
+        try {
+            // No 500 coins in the vault, the change can only come from the customer's own coins
+            Denomination d10 = new Denomination(1, 1000, 100);
+            d10.addMoney(50);
+            DenominationChainService chain = new DenominationChainService(d10);
+            chain.setNext(new DenominationChainService(new Denomination(2, 500, 100)));
+            Dispenser dispenser = new Dispenser(1);
+            dispenser.addProduct(new Product(101, "Coke", 15.0, 10, 10));
+            VendingMachine vm = new VendingMachine(1, new DispenserService(dispenser),
+                    new DenominationService(chain), new SelectProductService(dispenser));
+            vm.enter(StateKind.IDLE);
+            vm.selectProduct(101, 1); // 15
+            vm.confirmInsertMoney();
+            vm.insertCoin(500);
+            vm.insertCoin(500);
+            Outcome fromEscrow = vm.tryInsertCoin(1000); // 5 back from the two 500 coins
+            boolean escrowPaid = fromEscrow == Outcome.OK && vm.state instanceof IdleState
+                    && dispenser.getQuantity(101) == 9;
+
+            // Every coke is held by a kiosk session when the last coin goes in
+            VendingMachine busy = setupVendingMachine();
+            SessionService sessions = new SessionService(busy.getDispenserService(), busy.getDenominationService(),
+                    1000, () -> 0);
+            busy.setSessionService(sessions);
+            busy.selectProduct(101, 1);
+            busy.confirmInsertMoney();
+            CartSession kiosk = sessions.openSession();
+            sessions.selectProduct(kiosk.getId(), 101, 10);
+            busy.insertCoin(1000);
+            Outcome failed = busy.tryInsertCoin(500);
+            boolean kept = failed == Outcome.OUT_OF_STOCK && busy.getStateKind() == StateKind.INSERT_MONEY
+                    && busy.getAmountDue() == 0;
+            busy.cancelTransaction();
+            DenominationVault vault = busy.getDenominationService().getVault();
+            int[] values = new int[vault.size()];
+            int[] counts = new int[vault.size()];
+            vault.collect(values, counts);
+            boolean refunded = busy.state instanceof IdleState && counts[0] == 50 && counts[1] == 50
+                    && busy.getDispenserService().getProduct(101).getQuantity() == 10;
+
+            if (escrowPaid && kept && refunded) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            } else {
+                System.out.println("[RESULT]: Failed (Escrow paid " + escrowPaid + " " + fromEscrow + ", kept " + kept
+                        + " " + failed + ", refunded " + refunded + ")");
+                failedTests.add(name + " (Coin sale stuck or coins lost)");
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase38_EventLogSinkFailure() {
+        String name = "TestCase38: Event Log Survives A Failing Sink";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: An event the sink throws on is counted and reported, the consumer keeps"
+                + " draining, and a stopped log closes its sink once.");
+        try {
+            List<Long> received = Collections.synchronizedList(new ArrayList<>());
+            AtomicInteger closes = new AtomicInteger();
+            AtomicInteger reported = new AtomicInteger();
+            EventLog log = new EventLog(8, new EventLog.Sink() {
+                public void accept(long timestamp, int type, long a, long b) {
+                    if (type == EventLog.CHANGE_UNAVAILABLE) {
+                        throw new UncheckedIOException("Disk full", new IOException("Disk full"));
+                    }
+                    received.add(a);
+                }
+
+                public void close() {
+                    closes.incrementAndGet();
+                }
+            });
+            log.setFailureHandler((thread, e) -> reported.incrementAndGet());
+            log.start();
+            log.publish(EventLog.AMOUNT_DUE, 1, 0);
+            log.publish(EventLog.CHANGE_UNAVAILABLE, 2, 0);
+            log.publish(EventLog.AMOUNT_DUE, 3, 0);
+
+            // Left to the consumer thread, which has to outlive the failure to deliver the last event
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (received.size() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            boolean survived = received.equals(List.of(1L, 3L)) && log.getFailed() == 1 && reported.get() == 1;
+
+            log.stop();
+            log.stop();
+            log.publish(EventLog.AMOUNT_DUE, 4, 0);
+            log.flush();
+            boolean closedOnce = closes.get() == 1 && log.drain() == 0 && received.size() == 2;
+
+            if (survived && closedOnce) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            } else {
+                System.out.println("[RESULT]: Failed (Received " + received + ", failed " + log.getFailed()
+                        + ", reported " + reported.get() + ", closes " + closes.get() + ")");
+                failedTests.add(name + " (Consumer died or sink closed twice)");
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
+
+    private static void testCase39_SlotReuse() {
+        String name = "TestCase39: Dispenser Slots Reused Under Churn";
+        System.out.println("--- " + name + " ---");
+        System.out.println("[EXPECTED]: Products added and removed over and over reuse one slot, with dense and"
+                + " scattered ids, and older catalogs still find what they held.");
+        try {
+            Dispenser dispenser = new Dispenser(1);
+            dispenser.addProduct(new Product(101, "Coke", 15.0, 10, 10));
+            dispenser.addProduct(new Product(102, "Pepsi", 12.0, 5, 5));
+            dispenser.addProduct(new Product(103, "Water", 10.0, 20, 20));
+
+            dispenser.addProduct(new Product(104, "Juice", 20.0, 3, 5));
+            CatalogSnapshot withJuice = dispenser.snapshot();
+            dispenser.removeProduct(104);
+            for (int i = 0; i < 1000; i++) {
+                int productId = i % 2 == 0 ? 105 + i : 1_000_000 * (i + 1); // dense, then scattered ids
+                dispenser.addProduct(new Product(productId, "Seasonal", 5.0, 1, 1));
+                dispenser.removeProduct(productId);
+            }
+            dispenser.addProduct(new Product(2_000_000_000, "Tea", 8.0, 4, 4));
+
+            CatalogSnapshot catalog = dispenser.snapshot();
+            boolean bounded = catalog.slotCount() == 4 && catalog.size() == 4;
+            boolean found = dispenser.getProduct(101).getName().equals("Coke")
+                    && dispenser.getProduct(103).getQuantity() == 20 && dispenser.getProduct(104) == null
+                    && dispenser.getProduct(2_000_000_000).getName().equals("Tea")
+                    && dispenser.getProduct(1_000_000) == null && dispenser.getProducts().size() == 4;
+            boolean catalogsAgree = catalog.get(104) == null && catalog.get(2_000_000_000).getQuantity() == 4
+                    && withJuice.get(104).getQuantity() == 3 && withJuice.get(2_000_000_000) == null
+                    && catalog.get(102) == withJuice.get(102);
+
+            if (bounded && found && catalogsAgree) {
+                System.out.println("[RESULT]: Success");
+                passedTests.add(name);
+            } else {
+                System.out.println("[RESULT]: Failed (Slots " + catalog.slotCount() + ", size " + catalog.size()
+                        + ", found " + found + ", catalogs agree " + catalogsAgree + ")");
+                failedTests.add(name + " (Slots grew or lookups went wrong)");
+            }
+        } catch (Exception e) {
+            System.out.println("[RESULT]: Failed - " + e.getMessage());
+            failedTests.add(name + " (" + e.getMessage() + ")");
+        }
+        System.out.println();
+    }
 }
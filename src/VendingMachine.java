@@ -1,20 +1,55 @@
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
+import jdk.jfr.EventType;
 import models.*;
 import services.*;
 import states.IdleState;
 import states.InsertMoneyState;
+import states.MaintenanceState;
+import states.OutOfServiceState;
+import states.Outcome;
 import states.ProcessTransactionState;
+import states.StateKind;
+import states.StateTransitionEvent;
+import states.Transition;
 import states.VendingMachineState;
 
 public class VendingMachine {
+    private static final EventType TRANSITION_EVENTS = EventType.getEventType(StateTransitionEvent.class);
+
     int id;
     DispenserService dispenserService;
     DenominationService denominationService;
     SelectProductService selectProductService;
     VendingMachineState state;
-    Map<Integer, Integer> money;
+    // One instance per state kind, created with the machine and reused by every sale
+    VendingMachineState[] states = new VendingMachineState[StateKind.values().length];
+    InsertMoneyState insertMoneyState;
+    ProcessTransactionState processTransactionState;
+    IntIntMap money;
+    // Coins inserted since the cart was confirmed, cleared instead of reallocated for the next sale
+    IntIntMap escrow = new IntIntMap();
+    long paid; // minor units inserted coin by coin for the current sale
+    ChangePlan coinPlan; // reused to check the change of a coin-by-coin sale
+    TransactionJournal journal;
+    // Extra screens of kiosk-style machines, each with its own cart, next to the single-customer flow below
+    SessionService sessionService;
+
+    // Abandoned-sale timeout: armed when the customer confirms the cart or inserts money, disarmed once the
+    // machine is idle again. The generation tells a stale expiry from the current one.
+    TimingWheel timeoutWheel;
+    long sessionTimeoutNanos;
+    Executor timeoutDispatcher;
+    TimingWheel.Timeout sessionTimeout;
+    long sessionGeneration;
+    IntIntMap lastRefund;
+
+    // Operation latencies and rejects, off unless set
+    MachineMetrics metrics;
 
     public VendingMachine(int id, DispenserService dispenserService, DenominationService denominationService,
             SelectProductService selectProductService) {
@@ -22,24 +57,88 @@ public class VendingMachine {
         this.dispenserService = dispenserService;
         this.denominationService = denominationService;
         this.selectProductService = selectProductService;
+        this.sessionService = new SessionService(dispenserService, denominationService);
+
+        this.insertMoneyState = new InsertMoneyState(null);
+        this.processTransactionState = new ProcessTransactionState(dispenserService, denominationService,
+                selectProductService, null);
+        states[StateKind.IDLE.ordinal()] = new IdleState(selectProductService, dispenserService);
+        states[StateKind.INSERT_MONEY.ordinal()] = insertMoneyState;
+        states[StateKind.PROCESS_TRANSACTION.ordinal()] = processTransactionState;
+        states[StateKind.MAINTENANCE.ordinal()] = new MaintenanceState(dispenserService, denominationService);
+        states[StateKind.OUT_OF_SERVICE.ordinal()] = new OutOfServiceState();
+        this.state = states[StateKind.IDLE.ordinal()];
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public DispenserService getDispenserService() {
+        return dispenserService;
+    }
+
+    public DenominationService getDenominationService() {
+        return denominationService;
+    }
+
+    public SelectProductService getSelectProductService() {
+        return selectProductService;
+    }
+
+    public SessionService getSessionService() {
+        return sessionService;
+    }
+
+    public void setSessionService(SessionService sessionService) {
+        this.sessionService = sessionService;
+        sessionService.setJournal(journal);
     }
 
     public void addProducts(List<Product> products) {
         state.addProducts(products);
     }
 
+    // The throwing operations run the outcome-code ones below and turn a rejection into the exception the states
+    // have always thrown, so both APIs share one code path and the metrics see every call
     public void selectProduct(int id, int quantity) {
-        state.selectProduct(id, quantity);
+        Outcome outcome = trySelectProduct(id, quantity);
+        if (outcome == Outcome.INVALID_STATE) {
+            state.selectProduct(id, quantity);
+        } else if (outcome == Outcome.INVALID_QUANTITY) {
+            throw new IllegalArgumentException("Quantity must be greater than 0");
+        } else if (outcome != Outcome.OK) {
+            throw new IllegalArgumentException("Product is not available");
+        }
     }
 
     public void confirmInsertMoney() {
-        setState(new InsertMoneyState(money));
+        if (tryConfirmInsertMoney() != Outcome.OK) {
+            Transition.CONFIRM_INSERT_MONEY.next(state.kind());
+        }
     }
 
     public void setState(VendingMachineState state) {
+        if (TRANSITION_EVENTS.isEnabled()) {
+            recordTransition(this.state, state);
+        }
         this.state = state;
     }
 
+    // Switches to the machine's own instance of the given state
+    public void enter(StateKind kind) {
+        setState(states[kind.ordinal()]);
+    }
+
+    public StateKind getStateKind() {
+        return state.kind();
+    }
+
+    // Applies a transition from the table, throws if the current state does not allow it
+    void transition(Transition transition) {
+        enter(transition.next(state.kind()));
+    }
+
     public void updateSelectedProduct(int id, int quantity) {
         this.state.selectProduct(id, quantity);
     }
@@ -54,15 +153,80 @@ public class VendingMachine {
 
     public void clearSelectedProducts() {
         state.clearSelectedProducts();
-        setState(new IdleState(selectProductService, dispenserService));
+        transition(Transition.CLEAR_CART);
+        disarmSessionTimeout();
     }
 
     public void insertMoney(Map<Integer, Integer> money) {
-        this.money = money;
-        setState(new ProcessTransactionState(dispenserService, denominationService, selectProductService, money));
+        insertMoney(IntIntMap.of(money));
+    }
+
+    public void insertMoney(IntIntMap money) {
+        if (tryInsertMoney(money) != Outcome.OK) {
+            Transition.INSERT_MONEY.next(state.kind());
+        }
+    }
+
+    // One coin from the acceptor. The coin is refused straight away if the vault has no room for it; once the
+    // coins cover the cart and change can be given the sale completes without a separate processTransaction.
+    // Returns false for a refused coin, see tryInsertCoin for why a sale did not complete.
+    public boolean insertCoin(int value) {
+        Outcome outcome = tryInsertCoin(value);
+        if (outcome == Outcome.INVALID_STATE) {
+            state.insertCoin(value);
+        }
+        return outcome != Outcome.COIN_REJECTED;
+    }
+
+    // OK while more is due and once the sale completed. NO_CHANGE, OUT_OF_STOCK or VAULT_CHANGED when the coins
+    // cover the cart but the sale cannot complete: the machine then stays in INSERT_MONEY with every coin in
+    // escrow, so the customer can add a coin or cancel and get them all back.
+    public Outcome tryInsertCoin(int value) {
+        if (state.kind() != StateKind.INSERT_MONEY) {
+            return rejected(Outcome.INVALID_STATE);
+        }
+        int inEscrow = money == null ? 0 : money.get(value);
+        if (!denominationService.canAcceptCoins(value, inEscrow + 1)) {
+            EventLog.log(EventLog.COIN_REJECTED, value, 0);
+            return rejected(Outcome.COIN_REJECTED);
+        }
+
+        state.insertCoin(value);
+        paid = Money.add(paid, value);
+        armSessionTimeout();
+
+        long amountDue = getAmountDue();
+        if (amountDue > 0) {
+            EventLog.log(EventLog.AMOUNT_DUE, amountDue, 0);
+            return Outcome.OK;
+        }
+
+        // Planned with the escrowed coins, which can themselves pay the change
+        long change = Money.subtract(paid, selectProductService.getTotalPrice());
+        if (coinPlan == null) {
+            coinPlan = denominationService.newChangePlan();
+        }
+        if (!denominationService.planTransaction(money, change, coinPlan)) {
+            EventLog.log(EventLog.CHANGE_UNAVAILABLE, change, 0);
+            return rejected(Outcome.NO_CHANGE);
+        }
+
+        tryInsertMoney(money);
+        Outcome outcome = tryProcessTransaction();
+        if (outcome != Outcome.OK) {
+            // Stock and vault were left as they were, back to paying with the escrow intact
+            insertMoneyState.insertMoney(money);
+            enter(StateKind.INSERT_MONEY);
+        }
+        return outcome;
     }
 
-    public void giveChange(int amount) {
+    // What is still missing for the cart, updated with every coin
+    public long getAmountDue() {
+        return Math.max(0, Money.subtract(selectProductService.getTotalPrice(), paid));
+    }
+
+    public void giveChange(long amount) {
         state.giveChange(amount);
     }
 
@@ -74,10 +238,224 @@ public class VendingMachine {
         dispenserService.showProducts();
     }
 
+    public boolean isExactChangeOnly(long maxChange) {
+        return denominationService.isExactChangeOnly(maxChange);
+    }
+
+    // Abandons the current sale from any customer state: the cart is emptied and the machine goes back to idle
+    public void cancelTransaction() {
+        if (tryCancelTransaction() != Outcome.OK) {
+            Transition.CANCEL.next(state.kind());
+        }
+    }
+
+    // Without a dispatcher the expiry runs on the wheel's ticker thread, which is only safe if nothing else
+    // drives the machine at the same time; VendingMachineActor passes its mailbox instead
+    public void setSessionTimeout(TimingWheel wheel, long timeout, TimeUnit unit) {
+        setSessionTimeout(wheel, timeout, unit, Runnable::run);
+    }
+
+    public void setSessionTimeout(TimingWheel wheel, long timeout, TimeUnit unit, Executor dispatcher) {
+        this.timeoutWheel = wheel;
+        this.sessionTimeoutNanos = unit.toNanos(timeout);
+        this.timeoutDispatcher = dispatcher;
+    }
+
+    // Coins handed back by the last abandoned sale, null if none timed out yet
+    public IntIntMap getLastRefund() {
+        return lastRefund;
+    }
+
+    void armSessionTimeout() {
+        if (timeoutWheel == null) {
+            return;
+        }
+        if (sessionTimeout != null) {
+            sessionTimeout.cancel();
+        }
+        long generation = ++sessionGeneration;
+        Executor dispatcher = timeoutDispatcher;
+        sessionTimeout = timeoutWheel.schedule(() -> dispatcher.execute(() -> expireSession(generation)),
+                sessionTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void disarmSessionTimeout() {
+        if (sessionTimeout != null) {
+            sessionTimeout.cancel();
+            sessionTimeout = null;
+        }
+        sessionGeneration++;
+    }
+
+    // The customer walked away: inserted coins never reached the vault, so they are simply handed back
+    void expireSession(long generation) {
+        if (generation != sessionGeneration) {
+            return;
+        }
+        // Copied since the escrow map is reused by the next sale
+        IntIntMap refund = new IntIntMap();
+        long refundAmount = 0;
+        int refundCoins = 0;
+        if (money != null) {
+            refund.putAll(money);
+            for (int slot = money.firstSlot(); slot >= 0; slot = money.nextSlot(slot)) {
+                refundAmount = Money.add(refundAmount, Money.multiply(money.keyAt(slot), money.valueAt(slot)));
+                refundCoins += money.valueAt(slot);
+            }
+        }
+        EventLog.log(EventLog.SESSION_TIMED_OUT, refundAmount, refundCoins);
+        lastRefund = refund;
+        cancelTransaction();
+    }
+
+    public void setJournal(TransactionJournal journal) {
+        this.journal = journal;
+        processTransactionState.setJournal(journal);
+        sessionService.setJournal(journal);
+    }
+
+    // Replays the journal on top of the stock the machine was built with, call once at startup
+    public int recoverFromJournal() {
+        return journal.recover(dispenserService, denominationService);
+    }
+
+    // Records the current stock, needed after restocking or maintenance since only sales are journaled
+    public void checkpointJournal() {
+        journal.checkpoint(dispenserService, denominationService);
+    }
+
+    // Writes the whole machine to path, then empties the journal since the snapshot already holds every sale
+    // recorded in it
+    public void saveSnapshot(Path path) {
+        if (journal == null) {
+            MachineSnapshot.write(path, id, stateCode(), 0, dispenserService, denominationService,
+                    selectProductService.selectedProducts, money);
+            return;
+        }
+        // Sales change stock and coins and append their record under the journal's lock, so holding it here the
+        // snapshot contains exactly the sales recorded before the truncate
+        synchronized (journal) {
+            MachineSnapshot.write(path, id, stateCode(), journal.getNextSequence(), dispenserService,
+                    denominationService, selectProductService.selectedProducts, money);
+            journal.truncate();
+        }
+    }
+
+    byte stateCode() {
+        switch (state.kind()) {
+            case INSERT_MONEY:
+                return MachineSnapshot.INSERT_MONEY;
+            case PROCESS_TRANSACTION:
+                return MachineSnapshot.PROCESS_TRANSACTION;
+            case MAINTENANCE:
+                return MachineSnapshot.MAINTENANCE;
+            case OUT_OF_SERVICE:
+                return MachineSnapshot.OUT_OF_SERVICE;
+            default:
+                return MachineSnapshot.IDLE;
+        }
+    }
+
     public void processTransaction() {
-        state.processTransaction();
+        Outcome outcome = tryProcessTransaction();
+        if (outcome == Outcome.INVALID_STATE) {
+            state.processTransaction();
+        }
+        if (outcome != Outcome.OK) {
+            throw ProcessTransactionState.failure(outcome);
+        }
+    }
+
+    // Non-throwing counterparts of the customer operations above. Rejections come back as an Outcome and leave the
+    // machine in the state it was in, just like a caught exception would.
+    public Outcome trySelectProduct(int id, int quantity) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        Outcome outcome = state.trySelectProduct(id, quantity);
+        return measured(MachineMetrics.Operation.SELECT_PRODUCT, start, outcome);
+    }
+
+    public Outcome tryConfirmInsertMoney() {
+        if (!Transition.CONFIRM_INSERT_MONEY.isAllowed(state.kind())) {
+            return rejected(Outcome.INVALID_STATE);
+        }
+        escrow.clear();
+        this.money = escrow;
+        this.paid = 0;
+        insertMoneyState.insertMoney(money);
+        transition(Transition.CONFIRM_INSERT_MONEY);
+        armSessionTimeout();
+        return Outcome.OK;
+    }
+
+    public Outcome tryInsertMoney(IntIntMap money) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        if (!Transition.INSERT_MONEY.isAllowed(state.kind())) {
+            return measured(MachineMetrics.Operation.INSERT_MONEY, start, Outcome.INVALID_STATE);
+        }
+        this.money = money;
+        processTransactionState.setMoney(money);
+        transition(Transition.INSERT_MONEY);
+        armSessionTimeout();
+        return measured(MachineMetrics.Operation.INSERT_MONEY, start, Outcome.OK);
+    }
+
+    public Outcome tryProcessTransaction() {
+        long start = metrics == null ? 0 : System.nanoTime();
+        Outcome outcome = state.tryProcessTransaction();
+        if (outcome == Outcome.OK) {
+            transition(Transition.COMPLETE_SALE);
+            this.money = null;
+            this.paid = 0;
+            disarmSessionTimeout();
+        }
+        return measured(MachineMetrics.Operation.PROCESS_TRANSACTION, start, outcome);
+    }
+
+    public Outcome tryCancelTransaction() {
+        if (!Transition.CANCEL.isAllowed(state.kind())) {
+            return rejected(Outcome.INVALID_STATE);
+        }
+        selectProductService.clear();
+        this.money = null;
+        this.paid = 0;
+        transition(Transition.CANCEL);
+        disarmSessionTimeout();
+        return Outcome.OK;
+    }
+
+    // Shares the machine's metrics with its services, which time the vault and dispenser phases of a sale
+    public void setMetrics(MachineMetrics metrics) {
+        this.metrics = metrics;
+        dispenserService.setMetrics(metrics);
+        denominationService.setMetrics(metrics);
+    }
+
+    public MachineMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void recordTransition(VendingMachineState from, VendingMachineState to) {
+        StateTransitionEvent event = new StateTransitionEvent();
+        if (event.shouldCommit()) {
+            event.machineId = id;
+            event.from = from == null ? null : from.kind().getLabel();
+            event.to = to.kind().getLabel();
+            event.commit();
+        }
+    }
+
+    private Outcome measured(MachineMetrics.Operation operation, long start, Outcome outcome) {
+        if (metrics != null) {
+            metrics.record(operation, System.nanoTime() - start);
+        }
+        return rejected(outcome);
+    }
 
-        this.state = new IdleState(selectProductService, dispenserService);
+    private Outcome rejected(Outcome outcome) {
+        if (metrics != null && outcome != Outcome.OK) {
+            metrics.recordReject(outcome);
+        }
+        return outcome;
     }
 
 }
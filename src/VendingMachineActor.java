@@ -0,0 +1,153 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import models.IntIntMap;
+import models.Product;
+import services.TimingWheel;
+
+// Actor front end for a VendingMachine. Every command is queued to the machine's mailbox and executed by a
+// single consumer at a time, so the touch screen, the coin acceptor and remote management can all call in
+// concurrently without locking the machine. The mailbox is only scheduled on the executor while it has
+// messages, which lets tens of thousands of idle machines share a handful of threads. On Java 21 pass
+// Executors.newVirtualThreadPerTaskExecutor() to drain every mailbox on its own virtual thread.
+public class VendingMachineActor {
+    private static final int MAX_MESSAGES_PER_DRAIN = 64;
+
+    private final VendingMachine machine;
+    private final Executor executor;
+    private final ConcurrentLinkedQueue<Runnable> mailbox;
+    private final AtomicBoolean scheduled;
+
+    public VendingMachineActor(VendingMachine machine) {
+        this(machine, ForkJoinPool.commonPool());
+    }
+
+    public VendingMachineActor(VendingMachine machine, Executor executor) {
+        this.machine = machine;
+        this.executor = executor;
+        this.mailbox = new ConcurrentLinkedQueue<>();
+        this.scheduled = new AtomicBoolean();
+    }
+
+    public CompletableFuture<Void> addProducts(List<Product> products) {
+        return send(() -> machine.addProducts(products));
+    }
+
+    public CompletableFuture<Void> selectProduct(int id, int quantity) {
+        return send(() -> machine.selectProduct(id, quantity));
+    }
+
+    public CompletableFuture<Void> updateSelectedProduct(int id, int quantity) {
+        return send(() -> machine.updateSelectedProduct(id, quantity));
+    }
+
+    public CompletableFuture<Void> removeSelectedProduct(int id) {
+        return send(() -> machine.removeSelectedProduct(id));
+    }
+
+    public CompletableFuture<Void> showSelectedProducts() {
+        return send(machine::showSelectedProducts);
+    }
+
+    public CompletableFuture<Void> clearSelectedProducts() {
+        return send(machine::clearSelectedProducts);
+    }
+
+    public CompletableFuture<Void> confirmInsertMoney() {
+        return send(machine::confirmInsertMoney);
+    }
+
+    public CompletableFuture<Void> insertMoney(Map<Integer, Integer> money) {
+        return send(() -> machine.insertMoney(money));
+    }
+
+    public CompletableFuture<Void> insertMoney(IntIntMap money) {
+        return send(() -> machine.insertMoney(money));
+    }
+
+    public CompletableFuture<Boolean> insertCoin(int value) {
+        return ask(() -> machine.insertCoin(value));
+    }
+
+    public CompletableFuture<Void> giveChange(long amount) {
+        return send(() -> machine.giveChange(amount));
+    }
+
+    public CompletableFuture<Void> dispenseProducts() {
+        return send(machine::dispenseProducts);
+    }
+
+    public CompletableFuture<Void> showProducts() {
+        return send(machine::showProducts);
+    }
+
+    public CompletableFuture<Void> processTransaction() {
+        return send(machine::processTransaction);
+    }
+
+    public CompletableFuture<Void> cancelTransaction() {
+        return send(machine::cancelTransaction);
+    }
+
+    // Abandoned sales expire through this mailbox, so the expiry never races with the customer's own commands
+    public CompletableFuture<Void> setSessionTimeout(TimingWheel wheel, long timeout, TimeUnit unit) {
+        return send(() -> machine.setSessionTimeout(wheel, timeout, unit, this::send));
+    }
+
+    public CompletableFuture<Boolean> isExactChangeOnly(long maxChange) {
+        return ask(() -> machine.isExactChangeOnly(maxChange));
+    }
+
+    public CompletableFuture<Void> send(Runnable command) {
+        return ask(() -> {
+            command.run();
+            return null;
+        });
+    }
+
+    public <T> CompletableFuture<T> ask(Supplier<T> query) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        mailbox.add(() -> {
+            try {
+                result.complete(query.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        schedule();
+        return result;
+    }
+
+    public int pendingMessages() {
+        return mailbox.size();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    // Runs a bounded batch so one busy machine cannot starve the others sharing the executor
+    private void drain() {
+        for (int i = 0; i < MAX_MESSAGES_PER_DRAIN; i++) {
+            Runnable message = mailbox.poll();
+            if (message == null) {
+                break;
+            }
+            message.run();
+        }
+
+        scheduled.set(false);
+        if (!mailbox.isEmpty()) {
+            schedule();
+        }
+    }
+}
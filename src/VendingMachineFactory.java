@@ -0,0 +1,107 @@
+import models.*;
+import services.*;
+import java.nio.file.Path;
+
+import states.StateKind;
+
+// Standard machine wiring shared by the test suite and the fleet simulator
+public class VendingMachineFactory {
+
+    // Coin values are in minor units, so 1000 is a 10.00 coin
+    public static VendingMachine createStandardMachine(int id) {
+        return createStandardMachine(id, new Dispenser(id));
+    }
+
+    // Same machine with its products kept as rows of a table shared by the fleet
+    public static VendingMachine createStandardMachine(int id, InventoryTable store) {
+        return createStandardMachine(id, new ColumnarDispenser(id, store));
+    }
+
+    private static VendingMachine createStandardMachine(int id, ProductDispenser dispenser) {
+        Denomination d10 = new Denomination(1, 1000, 100);
+        d10.addMoney(50);
+        DenominationChainService chain10 = new DenominationChainService(d10);
+
+        Denomination d5 = new Denomination(2, 500, 100);
+        d5.addMoney(50); // Add 50 coins of 5 (50% capacity)
+        DenominationChainService chain5 = new DenominationChainService(d5);
+
+        Denomination d1 = new Denomination(3, 100, 500);
+        d1.addMoney(100); // Add 100 coins of 1 (20% capacity)
+        DenominationChainService chain1 = new DenominationChainService(d1);
+
+        chain10.setNext(chain5);
+        chain5.setNext(chain1);
+
+        DenominationService denominationService = new DenominationService(chain10);
+        DispenserService dispenserService = new DispenserService(dispenser);
+
+        Product p1 = new Product(101, "Coke", 15.0, 10, 10);
+        Product p2 = new Product(102, "Pepsi", 12.0, 5, 5);
+        Product p3 = new Product(103, "Water", 10.0, 20, 20);
+
+        dispenser.addProduct(p1);
+        dispenser.addProduct(p2);
+        dispenser.addProduct(p3);
+
+        SelectProductService selectProductService = new SelectProductService(dispenser);
+
+        VendingMachine vm = new VendingMachine(id, dispenserService, denominationService, selectProductService);
+        vm.enter(StateKind.IDLE);
+
+        return vm;
+    }
+
+    public static VendingMachine fromSnapshot(Path path) {
+        return fromSnapshot(path, null);
+    }
+
+    // Loads a machine saved with VendingMachine.saveSnapshot, then replays the journal records written after it
+    public static VendingMachine fromSnapshot(Path path, TransactionJournal journal) {
+        MachineSnapshot snapshot = MachineSnapshot.read(path);
+
+        Dispenser dispenser = snapshot.getDispenser();
+        DispenserService dispenserService = new DispenserService(dispenser);
+        DenominationService denominationService = new DenominationService(snapshot.getVault());
+        SelectProductService selectProductService = new SelectProductService(dispenser);
+
+        VendingMachine vm = new VendingMachine(snapshot.getMachineId(), dispenserService, denominationService,
+                selectProductService);
+        if (journal != null) {
+            vm.setJournal(journal);
+        }
+        vm.money = snapshot.getMoney();
+        switch (snapshot.getState()) {
+            case MachineSnapshot.INSERT_MONEY:
+                vm.insertMoneyState.insertMoney(vm.money);
+                vm.enter(StateKind.INSERT_MONEY);
+                break;
+            case MachineSnapshot.PROCESS_TRANSACTION:
+                vm.processTransactionState.setMoney(vm.money);
+                vm.enter(StateKind.PROCESS_TRANSACTION);
+                break;
+            case MachineSnapshot.MAINTENANCE:
+                vm.enter(StateKind.MAINTENANCE);
+                break;
+            case MachineSnapshot.OUT_OF_SERVICE:
+                vm.enter(StateKind.OUT_OF_SERVICE);
+                break;
+            default:
+                vm.enter(StateKind.IDLE);
+        }
+
+        if (journal != null) {
+            journal.recover(dispenserService, denominationService, snapshot.getJournalSequence());
+        }
+
+        // Selected against the recovered stock, like a live cart it holds nothing until checkout reserves it. A
+        // line the stock can no longer cover, e.g. after a kiosk sale replayed from the journal, is dropped.
+        IntIntMap cart = snapshot.getCart();
+        for (int slot = cart.firstSlot(); slot >= 0; slot = cart.nextSlot(slot)) {
+            if (!selectProductService.trySelectProduct(cart.keyAt(slot), cart.valueAt(slot))) {
+                EventLog.log(EventLog.PRODUCT_UNAVAILABLE, cart.keyAt(slot), cart.valueAt(slot));
+            }
+        }
+        return vm;
+    }
+}
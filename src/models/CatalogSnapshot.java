@@ -0,0 +1,153 @@
+package models;
+
+import java.util.function.Consumer;
+
+// Immutable, versioned view of a dispenser catalog. Products sit in numbered slots kept in a persistent 32-way
+// trie: publishing a change to one slot copies only the nodes on its path (one node per 32x of catalog size)
+// and shares every other node with the previous version. Readers never lock and never see a half-applied change.
+public final class CatalogSnapshot {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    static final CatalogSnapshot EMPTY = new CatalogSnapshot(0, new Object[WIDTH], 0, 0, 0, null);
+
+    private final long version;
+    private final Object[] root;
+    private final int shift;
+    private final int slotCount; // one past the highest slot ever used, removed products leave an empty slot behind
+    private final int size;
+    // The owning dispenser's id -> slot table, which numbers the slots of this snapshot too. It may be newer than
+    // this version, so a slot found through it is checked against the product's id. Null for a snapshot built on
+    // request.
+    private final IdTable ids;
+
+    private CatalogSnapshot(long version, Object[] root, int shift, int slotCount, int size, IdTable ids) {
+        this.version = version;
+        this.root = root;
+        this.shift = shift;
+        this.slotCount = slotCount;
+        this.size = size;
+        this.ids = ids;
+    }
+
+    // First version of a dispenser's catalog, with its slots numbered by the given table
+    static CatalogSnapshot empty(IdTable ids) {
+        return new CatalogSnapshot(0, new Object[WIDTH], 0, 0, 0, ids);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    // Number of products in the catalog
+    public int size() {
+        return size;
+    }
+
+    public int slotCount() {
+        return slotCount;
+    }
+
+    // A product still in the slot the dispenser has for it is found in one lookup. One removed or moved since
+    // this version was published is searched slot by slot.
+    public int slotOf(int productId) {
+        if (ids != null) {
+            int slot = ids.slotOf(productId);
+            ProductView product = slot(slot);
+            if (product != null && product.getId() == productId) {
+                return slot;
+            }
+        }
+        for (int slot = 0; slot < slotCount; slot++) {
+            ProductView product = slot(slot);
+            if (product != null && product.getId() == productId) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    public ProductView get(int productId) {
+        int slot = slotOf(productId);
+        return slot < 0 ? null : slot(slot);
+    }
+
+    // Product in the slot, null for a slot whose product was removed
+    public ProductView slot(int slot) {
+        if (slot < 0 || slot >= slotCount) {
+            return null;
+        }
+        return get(root, shift, slot);
+    }
+
+    // Visits the products in slot order
+    public void forEach(Consumer<ProductView> action) {
+        forEach(root, shift, action);
+    }
+
+    // A new version with the slot set to the product, null to empty it. Slots are numbered by the caller.
+    CatalogSnapshot withSlot(int slot, ProductView product) {
+        if (slot < slotCount) {
+            int grownSize = size + (product != null ? 1 : 0) - (get(root, shift, slot) != null ? 1 : 0);
+            return new CatalogSnapshot(version + 1, set(root, shift, slot, product), shift, slotCount, grownSize, ids);
+        }
+        return withSlots(new int[] { slot }, new ProductView[] { product });
+    }
+
+    // Same for a batch, published as one version
+    CatalogSnapshot withSlots(int[] slots, ProductView[] products) {
+        Object[] grownRoot = root;
+        int grownShift = shift;
+        int grownSlotCount = slotCount;
+        int grownSize = size;
+
+        for (int i = 0; i < slots.length; i++) {
+            int slot = slots[i];
+            while (slot >= 1 << (grownShift + BITS)) {
+                Object[] newRoot = new Object[WIDTH];
+                newRoot[0] = grownRoot;
+                grownRoot = newRoot;
+                grownShift += BITS;
+            }
+            if (slot >= grownSlotCount) {
+                grownSlotCount = slot + 1;
+            }
+            grownSize += (products[i] != null ? 1 : 0) - (get(grownRoot, grownShift, slot) != null ? 1 : 0);
+            grownRoot = set(grownRoot, grownShift, slot, products[i]);
+        }
+        return new CatalogSnapshot(version + 1, grownRoot, grownShift, grownSlotCount, grownSize, ids);
+    }
+
+    // Null for a slot whose path was never created
+    private static ProductView get(Object[] node, int level, int slot) {
+        for (; level > 0 && node != null; level -= BITS) {
+            node = (Object[]) node[(slot >>> level) & MASK];
+        }
+        return node == null ? null : (ProductView) node[slot & MASK];
+    }
+
+    private static Object[] set(Object[] node, int level, int slot, Object value) {
+        Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+        int index = (slot >>> level) & MASK;
+        if (level == 0) {
+            copy[index] = value;
+        } else {
+            copy[index] = set((Object[]) copy[index], level - BITS, slot, value);
+        }
+        return copy;
+    }
+
+    private static void forEach(Object[] node, int level, Consumer<ProductView> action) {
+        for (Object child : node) {
+            if (child == null) {
+                continue;
+            }
+            if (level == 0) {
+                action.accept((ProductView) child);
+            } else {
+                forEach((Object[]) child, level - BITS, action);
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Dispenser whose products are rows of an InventoryTable shared with the rest of the fleet. The machine itself
+// keeps only its rows in slot order and the id -> slot table; no Product objects and no catalog snapshot are
+// kept per machine. getProduct and getProducts return detached copies, and snapshot() is built when asked for;
+// the sale path reads prices and stock straight from the rows.
+public class ColumnarDispenser implements ProductDispenser {
+    final int id;
+    final InventoryTable store;
+    // Replaced as a whole when the catalog changes, so readers never see a half-updated index
+    volatile RowIndex rows;
+
+    public ColumnarDispenser(int id, InventoryTable store) {
+        this.id = id;
+        this.store = store;
+        this.rows = RowIndex.EMPTY;
+    }
+
+    // Dispensers of every machine with rows in the table, e.g. one mapped from disk, keyed by machine id. Slots
+    // follow row order.
+    public static Map<Integer, ColumnarDispenser> restoreFleet(InventoryTable store) {
+        Map<Integer, IntIntMap> rowsByMachine = new HashMap<>(); // machine id -> product id -> row
+        Map<Integer, ColumnarDispenser> fleet = new HashMap<>();
+        int rowCount = store.getRowCount();
+        for (int row = 0; row < rowCount; row++) {
+            int machineId = store.getMachineId(row);
+            // Retired rows belong to removed products
+            if (machineId >= 0) {
+                IntIntMap rowsById = rowsByMachine.computeIfAbsent(machineId, machine -> new IntIntMap());
+                rowsById.put(store.getProductId(row), row);
+            }
+        }
+        for (Map.Entry<Integer, IntIntMap> machine : rowsByMachine.entrySet()) {
+            IntIntMap rowsById = machine.getValue();
+            int[] rows = new int[rowsById.size()];
+            int count = 0;
+            for (int slot = rowsById.firstSlot(); slot >= 0; slot = rowsById.nextSlot(slot)) {
+                rows[count++] = rowsById.valueAt(slot);
+            }
+            Arrays.sort(rows);
+            IntIntMap slotsById = new IntIntMap(rows.length);
+            for (int slot = 0; slot < rows.length; slot++) {
+                slotsById.put(store.getProductId(rows[slot]), slot);
+            }
+            ColumnarDispenser dispenser = new ColumnarDispenser(machine.getKey(), store);
+            dispenser.rows = new RowIndex(rows, rows.length, IdTable.of(slotsById));
+            fleet.put(machine.getKey(), dispenser);
+        }
+        return fleet;
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    public InventoryTable getStore() {
+        return store;
+    }
+
+    @Override
+    public void addProduct(Product product) {
+        addProducts(List.of(product));
+    }
+
+    @Override
+    public synchronized void addProducts(Collection<Product> batch) {
+        RowIndex current = rows;
+        int[] grown = Arrays.copyOf(current.rows, current.rows.length + batch.size());
+        int slotCount = current.rows.length;
+        int size = current.size;
+        IntIntMap slotsById = current.slotsById(store);
+        for (Product product : batch) {
+            int slot = slotsById.getOrDefault(product.getId(), -1);
+            if (slot >= 0) {
+                store.setRow(grown[slot], product.getId(), product.getName(), product.getPrice(),
+                        product.getQuantity(), product.getCapacity());
+                continue;
+            }
+            slot = slotCount++;
+            slotsById.put(product.getId(), slot);
+            grown[slot] = store.addRow(id, product.getId(), product.getName(), product.getPrice(), product.getQuantity(),
+                    product.getCapacity());
+            size++;
+        }
+        rows = new RowIndex(Arrays.copyOf(grown, slotCount), size, IdTable.of(slotsById));
+    }
+
+    // The slot stays empty, like the catalog snapshot's
+    @Override
+    public synchronized void removeProduct(int id) {
+        RowIndex current = rows;
+        int slot = current.ids.slotOf(id);
+        if (slot < 0) {
+            return;
+        }
+        IntIntMap slotsById = current.slotsById(store);
+        slotsById.remove(id);
+        int[] remaining = current.rows.clone();
+        store.retireRow(remaining[slot]);
+        remaining[slot] = -1;
+        rows = new RowIndex(remaining, current.size - 1, IdTable.of(slotsById));
+    }
+
+    @Override
+    public Product getProduct(int id) {
+        int row = rows.rowOf(id);
+        return row < 0 ? null : store.toProduct(row);
+    }
+
+    @Override
+    public Collection<Product> getProducts() {
+        RowIndex current = rows;
+        List<Product> products = new ArrayList<>(current.size);
+        for (int row : current.rows) {
+            if (row >= 0) {
+                products.add(store.toProduct(row));
+            }
+        }
+        return products;
+    }
+
+    // Built from the rows on every call, slots numbered as in the dispenser
+    @Override
+    public CatalogSnapshot snapshot() {
+        RowIndex current = rows;
+        int[] slots = new int[current.size];
+        ProductView[] views = new ProductView[current.size];
+        int count = 0;
+        for (int slot = 0; slot < current.rows.length; slot++) {
+            if (current.rows[slot] >= 0) {
+                slots[count] = slot;
+                views[count++] = store.toView(current.rows[slot]);
+            }
+        }
+        return CatalogSnapshot.empty(current.ids).withSlots(slots, views);
+    }
+
+    @Override
+    public long getPrice(int id) {
+        int row = rows.rowOf(id);
+        return row < 0 ? -1 : store.getPrice(row);
+    }
+
+    @Override
+    public int getQuantity(int id) {
+        int row = rows.rowOf(id);
+        return row < 0 ? -1 : store.getQuantity(row);
+    }
+
+    @Override
+    public boolean isProductAvailable(int id) {
+        int row = rows.rowOf(id);
+        return row >= 0 && store.getAvailable(row) > 0;
+    }
+
+    @Override
+    public boolean canDispenseProduct(int id, int quantity) {
+        int row = rows.rowOf(id);
+        return quantity >= 0 && row >= 0 && store.getAvailable(row) >= quantity;
+    }
+
+    @Override
+    public boolean tryDispenseProduct(int id, int quantity) {
+        int row = rows.rowOf(id);
+        return row >= 0 && quantity > 0 && store.tryUpdateQuantity(row, -quantity);
+    }
+
+    @Override
+    public void updateQuantity(int id, int quantity) {
+        int row = rows.rowOf(id);
+        if (row < 0) {
+            throw new IllegalArgumentException("Product not found");
+        }
+        if (!store.tryUpdateQuantity(row, quantity)) {
+            throw new IllegalArgumentException("Quantity is greater than capacity or less than 0");
+        }
+    }
+
+    @Override
+    public boolean reserveProducts(IntIntMap cart) {
+        RowIndex current = rows;
+        for (int slot = cart.firstSlot(); slot >= 0; slot = cart.nextSlot(slot)) {
+            int row = current.rowOf(cart.keyAt(slot));
+            int quantity = cart.valueAt(slot);
+            if (row < 0 || quantity <= 0 || !store.tryUpdateQuantity(row, -quantity)) {
+                release(current, cart, slot);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void releaseProducts(IntIntMap cart) {
+        release(rows, cart, -1);
+    }
+
+    @Override
+    public boolean holdProduct(int id, int quantity) {
+        int row = rows.rowOf(id);
+        return row >= 0 && store.tryHold(row, quantity);
+    }
+
+    // Lines whose product was removed meanwhile have no row any more and are skipped, as in Dispenser
+    @Override
+    public void releaseHeld(IntIntMap cart) {
+        for (int slot = cart.firstSlot(); slot >= 0; slot = cart.nextSlot(slot)) {
+            releaseHeld(cart.keyAt(slot), cart.valueAt(slot));
+        }
+    }
+
+    @Override
+    public void releaseHeld(int id, int quantity) {
+        int row = rows.rowOf(id);
+        if (row >= 0) {
+            store.releaseHold(row, quantity);
+        }
+    }
+
+    @Override
+    public void dispenseHeld(IntIntMap cart) {
+        RowIndex current = rows;
+        for (int slot = cart.firstSlot(); slot >= 0; slot = cart.nextSlot(slot)) {
+            int row = current.rowOf(cart.keyAt(slot));
+            if (row >= 0) {
+                store.consumeHold(row, cart.valueAt(slot));
+            }
+        }
+    }
+
+    // Puts back the cart lines before endSlot, or every line when endSlot is negative
+    private void release(RowIndex current, IntIntMap cart, int endSlot) {
+        for (int slot = cart.firstSlot(); slot >= 0 && slot != endSlot; slot = cart.nextSlot(slot)) {
+            int row = current.rowOf(cart.keyAt(slot));
+            if (row >= 0) {
+                store.increaseQuantity(row, cart.valueAt(slot));
+            }
+        }
+    }
+
+    // Store rows in slot order, -1 for a removed product, plus the id -> slot table. Immutable.
+    static final class RowIndex {
+        static final RowIndex EMPTY = new RowIndex(new int[0], 0, IdTable.EMPTY);
+
+        final int[] rows;
+        final int size;
+        final IdTable ids;
+
+        RowIndex(int[] rows, int size, IdTable ids) {
+            this.rows = rows;
+            this.size = size;
+            this.ids = ids;
+        }
+
+        int rowOf(int id) {
+            int slot = ids.slotOf(id);
+            return slot < 0 ? -1 : rows[slot];
+        }
+
+        IntIntMap slotsById(InventoryTable store) {
+            IntIntMap slotsById = new IntIntMap(size + 1);
+            for (int slot = 0; slot < rows.length; slot++) {
+                if (rows[slot] >= 0) {
+                    slotsById.put(store.getProductId(rows[slot]), slot);
+                }
+            }
+            return slotsById;
+        }
+    }
+}
@@ -4,7 +4,7 @@ import java.util.UUID;
 
 public class Denomination {
     int id;
-    int value;
+    int value; // minor units
     int capacity;
     int count;
 
@@ -1,38 +1,102 @@
 package models;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
-public class Dispenser {
-    Map<Integer, Product> products;
+// Slots as Product objects, each with its own stock counter, plus a catalog snapshot republished on every change
+public class Dispenser implements ProductDispenser {
+    // Changed in place under the dispenser's lock, read without it
+    final SlotIndex index;
     int id;
 
+    // Read-only copy of the catalog for the display and reporting, republished after every change made
+    // through this class. Its slots are the index's slots.
+    AtomicReference<CatalogSnapshot> catalog;
+
     public Dispenser(int id) {
         this.id = id;
-        this.products = new HashMap<>();
+        this.index = new SlotIndex();
+        this.catalog = new AtomicReference<>(CatalogSnapshot.empty(index.ids));
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    // Catalog changes update the index and publish the catalog in one critical section, so two of them on the same
+    // id cannot leave the index and the catalog disagreeing. Stock changes publish without the lock.
+    public synchronized void addProduct(Product product) {
+        int slot = index.put(product);
+        ProductView view = new ProductView(product);
+        CatalogSnapshot current;
+        do {
+            current = catalog.get();
+        } while (!catalog.compareAndSet(current, current.withSlot(slot, view)));
     }
 
-    public void addProduct(Product product) {
-        this.products.put(product.getId(), product);
+    // Publishes the whole batch as one catalog version
+    public synchronized void addProducts(Collection<Product> batch) {
+        int[] slots = new int[batch.size()];
+        ProductView[] views = new ProductView[slots.length];
+        int count = 0;
+        for (Product product : batch) {
+            slots[count] = index.put(product);
+            views[count++] = new ProductView(product);
+        }
+        CatalogSnapshot current;
+        do {
+            current = catalog.get();
+        } while (!catalog.compareAndSet(current, current.withSlots(slots, views)));
     }
 
-    public void removeProduct(int id) {
-        this.products.remove(id);
+    public synchronized void removeProduct(int id) {
+        int slot = index.remove(id);
+        if (slot < 0) {
+            return;
+        }
+        CatalogSnapshot current;
+        do {
+            current = catalog.get();
+        } while (!catalog.compareAndSet(current, current.withSlot(slot, null)));
     }
 
     public Product getProduct(int id) {
-        return this.products.get(id);
+        return index.get(id);
+    }
+
+    public Collection<Product> getProducts() {
+        return index.products();
+    }
+
+    public long getPrice(int id) {
+        Product product = index.get(id);
+        return product == null ? -1 : product.getPrice();
+    }
+
+    public int getQuantity(int id) {
+        Product product = index.get(id);
+        return product == null ? -1 : product.getQuantity();
+    }
+
+    // Consistent view of the whole catalog, never blocks and is never changed afterwards
+    public CatalogSnapshot snapshot() {
+        return catalog.get();
     }
 
     public boolean isProductAvailable(int id) {
-        Product p = this.products.get(id);
+        Product p = index.get(id);
         return p != null && p.isAvailable();
     }
 
     public boolean canDispenseProduct(int id, int quantity) {
-        Product product = this.getProduct(id);
+        Product product = index.get(id);
 
-        if (quantity < 0 || product == null || product.getQuantity() < quantity) {
+        if (quantity < 0 || product == null || product.getAvailable() < quantity) {
             return false;
         }
 
@@ -40,17 +104,189 @@ public class Dispenser {
     }
 
     public void dispenseProduct(int id, int quantity) {
-        Product product = this.products.get(id);
+        // Dispensing reduces quantity, so we pass -quantity
+        updateQuantity(id, -quantity);
+    }
+
+    // Checks and dispenses one line in a single step: one index lookup and one compare-and-set that fails,
+    // leaving the stock untouched, if fewer units are available than asked for
+    public boolean tryDispenseProduct(int id, int quantity) {
+        Product product = index.get(id);
+        if (product == null || quantity <= 0 || !product.tryUpdateQuantity(-quantity)) {
+            return false;
+        }
+        publish(product);
+        return true;
+    }
+
+    public void updateQuantity(int id, int quantity) {
+        Product product = index.get(id);
         if (product == null) {
             throw new IllegalArgumentException("Product not found");
         }
-        // Dispensing reduces quantity, so we pass -quantity
-        product.updateQuantity(-quantity);
+        product.updateQuantity(quantity);
+        publish(product);
+    }
+
+    // Takes the stock of every cart line or of none. Each line is a lock-free decrement-if-sufficient, lines
+    // already taken are put back as soon as one falls short.
+    public boolean reserveProducts(IntIntMap cart) {
+        for (int slot = cart.firstSlot(); slot >= 0; slot = cart.nextSlot(slot)) {
+            Product product = index.get(cart.keyAt(slot));
+            int quantity = cart.valueAt(slot);
+            if (product == null || quantity <= 0 || !product.tryUpdateQuantity(-quantity)) {
+                releaseProducts(cart, slot);
+                return false;
+            }
+            publish(product);
+        }
+        return true;
+    }
+
+    // Puts back the stock of a reservation that will not be dispensed
+    public void releaseProducts(IntIntMap cart) {
+        releaseProducts(cart, -1);
+    }
+
+    // Puts back the cart lines before endSlot, or every line when endSlot is negative
+    private void releaseProducts(IntIntMap cart, int endSlot) {
+        for (int slot = cart.firstSlot(); slot >= 0 && slot != endSlot; slot = cart.nextSlot(slot)) {
+            Product product = index.get(cart.keyAt(slot));
+            // Unconditional, the units were taken a moment ago and are physically still in the slot. A product
+            // removed meanwhile took its stock with it.
+            if (product != null) {
+                product.increaseQuantity(cart.valueAt(slot));
+                publish(product);
+            }
+        }
+    }
+
+    // Soft hold for a cart session, the units stay in the slot but no other selection or sale can take them
+    public boolean holdProduct(int id, int quantity) {
+        Product product = index.get(id);
+        if (product == null || !product.tryHold(quantity)) {
+            return false;
+        }
+        publish(product);
+        return true;
+    }
+
+    // Lines whose product was removed meanwhile are skipped, their holds went with it
+    public void releaseHeld(IntIntMap cart) {
+        for (int slot = cart.firstSlot(); slot >= 0; slot = cart.nextSlot(slot)) {
+            releaseHeld(cart.keyAt(slot), cart.valueAt(slot));
+        }
+    }
+
+    public void releaseHeld(int id, int quantity) {
+        Product product = index.get(id);
+        if (product != null) {
+            product.releaseHold(quantity);
+            publish(product);
+        }
     }
 
-    public void showProducts() {
-        for (Product product : this.products.values()) {
-            System.out.println(product.toString());
+    // Dispenses a cart whose units are all held by the session checking out
+    public void dispenseHeld(IntIntMap cart) {
+        for (int slot = cart.firstSlot(); slot >= 0; slot = cart.nextSlot(slot)) {
+            Product product = index.get(cart.keyAt(slot));
+            if (product != null) {
+                product.consumeHold(cart.valueAt(slot));
+                publish(product);
+            }
+        }
+    }
+
+    // Copies only the trie path of the product's slot. The view is rebuilt from the live product on every
+    // attempt, so concurrent writers of the same slot end with its latest quantity.
+    private void publish(Product product) {
+        int slot = index.ids.slotOf(product.getId());
+        if (slot < 0) {
+            return;
+        }
+        CatalogSnapshot current;
+        CatalogSnapshot next;
+        do {
+            current = catalog.get();
+            // Removed, or the slot handed to another product, since the index was read
+            ProductView published = current.slot(slot);
+            if (published == null || published.getId() != product.getId()) {
+                return;
+            }
+            next = current.withSlot(slot, new ProductView(product));
+        } while (!catalog.compareAndSet(current, next));
+    }
+
+    // Products in numbered slots plus the id -> slot table, changed in place under the dispenser's lock. A new
+    // product takes the slot most recently freed by a removal, so churn does not grow the slots. A reader may see a
+    // slot handed to another product after it looked the id up; it checks the id and treats that as absent.
+    static final class SlotIndex {
+        private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Product[].class);
+
+        volatile Product[] slots = new Product[8];
+        final IdTable ids = new IdTable();
+        int slotCount; // slots handed out so far, the free ones included
+        int[] free = new int[8];
+        int freeCount;
+
+        Product get(int id) {
+            int slot = ids.slotOf(id);
+            if (slot < 0) {
+                return null;
+            }
+            Product product = (Product) SLOTS.getAcquire(slots, slot);
+            return product != null && product.getId() == id ? product : null;
+        }
+
+        // A product whose id is already present takes over its slot, others get a free slot. Returns the slot.
+        int put(Product product) {
+            int slot = ids.slotOf(product.getId());
+            if (slot >= 0) {
+                Product previous = slots[slot];
+                if (previous != product) {
+                    product.carryHoldsFrom(previous);
+                }
+                SLOTS.setRelease(slots, slot, product);
+                return slot;
+            }
+            if (freeCount > 0) {
+                slot = free[--freeCount];
+            } else {
+                slot = slotCount++;
+                if (slot == slots.length) {
+                    slots = Arrays.copyOf(slots, slots.length * 2);
+                }
+            }
+            // Slot first, so a reader that finds the id finds the product
+            SLOTS.setRelease(slots, slot, product);
+            ids.put(product.getId(), slot);
+            return slot;
+        }
+
+        // Returns the slot the product had, -1 when it was not present
+        int remove(int id) {
+            int slot = ids.remove(id);
+            if (slot < 0) {
+                return -1;
+            }
+            SLOTS.setRelease(slots, slot, null);
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, free.length * 2);
+            }
+            free[freeCount++] = slot;
+            return slot;
+        }
+
+        Collection<Product> products() {
+            Product[] current = slots;
+            List<Product> products = new ArrayList<>(ids.size());
+            for (int slot = 0; slot < current.length; slot++) {
+                Product product = (Product) SLOTS.getAcquire(current, slot);
+                if (product != null) {
+                    products.add(product);
+                }
+            }
+            return products;
         }
     }
 }
@@ -0,0 +1,235 @@
+package models;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// Product id -> slot map of one dispenser. While the ids stay within DIRECT_RANGE_FACTOR table entries per product
+// (and at least MIN_DIRECT_RANGE), the usual case for a machine's small, dense slot numbers, a lookup is one bounds
+// check and one array read. Wider id ranges fall back to a hash index.
+//
+// put and remove change the table in place and must be called by one writer at a time, the dispenser under its
+// lock. Lookups take no lock: entries are written with release semantics, and an array that has to grow is copied
+// and published whole. A removed hash entry keeps its id, so a probe running next to the writer never loses its
+// chain and a product coming back reuses its entry.
+final class IdTable {
+    private static final int DIRECT_RANGE_FACTOR = 4;
+    private static final int MIN_DIRECT_RANGE = 256;
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    // Only ever read, for indexes that start empty and are replaced rather than changed
+    static final IdTable EMPTY = new IdTable();
+
+    // Null once the hash index is used instead
+    private volatile Direct direct = new Direct(0, new int[0]);
+    // Id in the high half, slot + 2 in the low half, 1 for a removed product and 0 for an entry never used
+    private volatile long[] entries;
+    private int size;
+    private int usedEntries;
+    // Lowest and highest id put since the table was last empty, removals do not narrow them
+    private int minId;
+    private int maxId;
+
+    // slotById[id - idBase] is the slot + 1, 0 for no product
+    private static final class Direct {
+        final int idBase;
+        final int[] slotById;
+
+        Direct(int idBase, int[] slotById) {
+            this.idBase = idBase;
+            this.slotById = slotById;
+        }
+    }
+
+    // Slot of the product, -1 when there is none
+    int slotOf(int id) {
+        Direct table = direct;
+        if (table != null) {
+            long offset = (long) id - table.idBase;
+            if (offset < 0 || offset >= table.slotById.length) {
+                return -1;
+            }
+            return (int) INTS.getAcquire(table.slotById, (int) offset) - 1;
+        }
+        long[] hashed = entries;
+        int mask = hashed.length - 1;
+        for (int index = IntIntMap.hash(id) & mask;; index = (index + 1) & mask) {
+            long entry = (long) LONGS.getAcquire(hashed, index);
+            if (entry == 0) {
+                return -1;
+            }
+            if ((int) (entry >>> 32) == id) {
+                return (int) entry - 2;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void put(int id, int slot) {
+        if (size == 0) {
+            minId = id;
+            maxId = id;
+        }
+        Direct table = direct;
+        if (table != null) {
+            long offset = (long) id - table.idBase;
+            if (offset < 0 || offset >= table.slotById.length) {
+                table = grow(id);
+            }
+            if (table != null) {
+                offset = (long) id - table.idBase;
+                if (table.slotById[(int) offset] == 0) {
+                    size++;
+                }
+                INTS.setRelease(table.slotById, (int) offset, slot + 1);
+                minId = Math.min(minId, id);
+                maxId = Math.max(maxId, id);
+                return;
+            }
+        }
+        hashPut(id, slot);
+    }
+
+    // Returns the slot the product had, -1 when there was none
+    int remove(int id) {
+        int slot = slotOf(id);
+        if (slot < 0) {
+            return -1;
+        }
+        Direct table = direct;
+        if (table != null) {
+            INTS.setRelease(table.slotById, id - table.idBase, 0);
+        } else {
+            long[] hashed = entries;
+            LONGS.setRelease(hashed, find(hashed, id), ((long) id << 32) | 1);
+        }
+        size--;
+        return slot;
+    }
+
+    // Copy of the direct table widened to take the id, or null after switching to the hash index because the ids
+    // became too sparse. The table at least doubles when it grows upwards, the usual direction for new ids.
+    private Direct grow(int id) {
+        Direct table = direct;
+        int low = Math.min(minId, id);
+        int high = Math.max(maxId, id);
+        long range = (long) high - low + 1;
+        long limit = Math.max(MIN_DIRECT_RANGE, ((long) size + 1) * DIRECT_RANGE_FACTOR);
+        if (range > limit) {
+            toHash();
+            return null;
+        }
+        int[] widened = new int[(int) Math.max(range, Math.min(limit, 2L * table.slotById.length))];
+        int[] slotById = table.slotById;
+        for (int offset = 0; offset < slotById.length; offset++) {
+            if (slotById[offset] != 0) {
+                widened[table.idBase + offset - low] = slotById[offset];
+            }
+        }
+        Direct grown = new Direct(low, widened);
+        direct = grown;
+        return grown;
+    }
+
+    // The hash index is kept from then on, even if later removals would make the ids dense again
+    private void toHash() {
+        Direct table = direct;
+        long[] hashed = new long[capacityFor(size + 1)];
+        int[] slotById = table.slotById;
+        for (int offset = 0; offset < slotById.length; offset++) {
+            if (slotById[offset] != 0) {
+                insert(hashed, table.idBase + offset, slotById[offset] - 1);
+            }
+        }
+        usedEntries = size;
+        entries = hashed;
+        direct = null;
+    }
+
+    private void hashPut(int id, int slot) {
+        long[] hashed = entries;
+        int index = find(hashed, id);
+        if (index >= 0) {
+            if ((int) hashed[index] < 2) {
+                size++;
+            }
+            LONGS.setRelease(hashed, index, ((long) id << 32) | (slot + 2));
+            return;
+        }
+        if ((usedEntries + 1) * 2 > hashed.length) {
+            hashed = rehash();
+        }
+        insert(hashed, id, slot);
+        usedEntries++;
+        size++;
+    }
+
+    // A fresh array without the removed entries, published once it is filled
+    private long[] rehash() {
+        long[] previous = entries;
+        long[] hashed = new long[capacityFor(size + 1)];
+        for (long entry : previous) {
+            if ((int) entry >= 2) {
+                insert(hashed, (int) (entry >>> 32), (int) entry - 2);
+            }
+        }
+        usedEntries = size;
+        entries = hashed;
+        return hashed;
+    }
+
+    private static void insert(long[] hashed, int id, int slot) {
+        int mask = hashed.length - 1;
+        int index = IntIntMap.hash(id) & mask;
+        while (hashed[index] != 0) {
+            index = (index + 1) & mask;
+        }
+        LONGS.setRelease(hashed, index, ((long) id << 32) | (slot + 2));
+    }
+
+    // Index of the id's entry, removed or not, -1 when it has none
+    private static int find(long[] hashed, int id) {
+        int mask = hashed.length - 1;
+        for (int index = IntIntMap.hash(id) & mask; hashed[index] != 0; index = (index + 1) & mask) {
+            if ((int) (hashed[index] >>> 32) == id) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    // At most half full, so every probe ends on an entry never used
+    private static int capacityFor(int count) {
+        return Integer.highestOneBit(Math.max(8, count * 4) - 1) << 1;
+    }
+
+    // A new table holding the given ids, sized for all of them up front
+    static IdTable of(IntIntMap slotsById) {
+        IdTable table = new IdTable();
+        if (slotsById.isEmpty()) {
+            return table;
+        }
+        int low = Integer.MAX_VALUE;
+        int high = Integer.MIN_VALUE;
+        for (int slot = slotsById.firstSlot(); slot >= 0; slot = slotsById.nextSlot(slot)) {
+            low = Math.min(low, slotsById.keyAt(slot));
+            high = Math.max(high, slotsById.keyAt(slot));
+        }
+        long range = (long) high - low + 1;
+        if (range > Math.max(MIN_DIRECT_RANGE, (long) slotsById.size() * DIRECT_RANGE_FACTOR)) {
+            table.entries = new long[capacityFor(slotsById.size())];
+            table.direct = null;
+        } else {
+            table.direct = new Direct(low, new int[(int) range]);
+        }
+        table.minId = low;
+        table.maxId = high;
+        for (int slot = slotsById.firstSlot(); slot >= 0; slot = slotsById.nextSlot(slot)) {
+            table.put(slotsById.keyAt(slot), slotsById.valueAt(slot));
+        }
+        return table;
+    }
+}
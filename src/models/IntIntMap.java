@@ -0,0 +1,202 @@
+package models;
+
+import java.util.Map;
+
+// Open-addressing int to int map with linear probing, used for carts (product id -> quantity) and
+// inserted money (coin value -> count) so the purchase path never boxes keys or values.
+// Iterate without allocating through the slot methods:
+//     for (int slot = map.firstSlot(); slot >= 0; slot = map.nextSlot(slot)) { map.keyAt(slot); map.valueAt(slot); }
+public class IntIntMap {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+    private int mask;
+
+    public IntIntMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1) - 1) << 1;
+        allocate(capacity);
+    }
+
+    public static IntIntMap of(Map<Integer, Integer> map) {
+        IntIntMap result = new IntIntMap(map.size());
+        for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(int key) {
+        return slotOf(key) >= 0;
+    }
+
+    public int get(int key) {
+        return getOrDefault(key, 0);
+    }
+
+    public int getOrDefault(int key, int defaultValue) {
+        int slot = slotOf(key);
+        return slot < 0 ? defaultValue : values[slot];
+    }
+
+    public void put(int key, int value) {
+        int slot = hash(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        used[slot] = true;
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > (mask + 1) >> 1) {
+            rehash((mask + 1) << 1);
+        }
+    }
+
+    // Adds delta to the value of key (0 when absent) and returns the new value
+    public int addTo(int key, int delta) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            values[slot] += delta;
+            return values[slot];
+        }
+        put(key, delta);
+        return delta;
+    }
+
+    // Removes key and returns its value, or 0 when it was absent
+    public int remove(int key) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            return 0;
+        }
+
+        int removed = values[slot];
+        size--;
+
+        // Backward-shift deletion keeps every probe sequence intact without tombstones
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (used[next]) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        used[hole] = false;
+        return removed;
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        for (int i = 0; i < used.length; i++) {
+            used[i] = false;
+        }
+        size = 0;
+    }
+
+    public void putAll(IntIntMap other) {
+        for (int slot = other.firstSlot(); slot >= 0; slot = other.nextSlot(slot)) {
+            put(other.keyAt(slot), other.valueAt(slot));
+        }
+    }
+
+    public int firstSlot() {
+        return nextSlot(-1);
+    }
+
+    // Next occupied slot after the given one, -1 once the table is exhausted
+    public int nextSlot(int slot) {
+        for (int i = slot + 1; i < used.length; i++) {
+            if (used[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int keyAt(int slot) {
+        return keys[slot];
+    }
+
+    public int valueAt(int slot) {
+        return values[slot];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int slot = firstSlot(); slot >= 0; slot = nextSlot(slot)) {
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+            builder.append(keys[slot]).append('=').append(values[slot]);
+        }
+        return builder.append('}').toString();
+    }
+
+    private int slotOf(int key) {
+        return probe(keys, used, mask, key);
+    }
+
+    // Slot holding key, -1 if absent. Shared with IntLongMap, which lays out its keys the same way.
+    static int probe(int[] keys, boolean[] used, int mask, int key) {
+        int slot = hash(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,110 @@
+package models;
+
+// Open-addressing int to long map with linear probing, the IntIntMap layout for long values such as prices in
+// minor units. Hashing and lookup are IntIntMap's; only the code that moves values is repeated, since the value
+// arrays differ in type and boxing them is what both maps exist to avoid.
+public class IntLongMap {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] keys;
+    private long[] values;
+    private boolean[] used;
+    private int size;
+    private int mask;
+
+    public IntLongMap() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(int key) {
+        return slotOf(key) >= 0;
+    }
+
+    public long getOrDefault(int key, long defaultValue) {
+        int slot = slotOf(key);
+        return slot < 0 ? defaultValue : values[slot];
+    }
+
+    public void put(int key, long value) {
+        int slot = IntIntMap.hash(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        used[slot] = true;
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > (mask + 1) >> 1) {
+            rehash((mask + 1) << 1);
+        }
+    }
+
+    // Removes key and returns its value, or 0 when it was absent
+    public long remove(int key) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            return 0;
+        }
+
+        long removed = values[slot];
+        size--;
+
+        // Backward-shift deletion, as in IntIntMap
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (used[next]) {
+            int home = IntIntMap.hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        used[hole] = false;
+        return removed;
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        for (int i = 0; i < used.length; i++) {
+            used[i] = false;
+        }
+        size = 0;
+    }
+
+    private int slotOf(int key) {
+        return IntIntMap.probe(keys, used, mask, key);
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+}
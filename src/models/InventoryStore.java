@@ -0,0 +1,192 @@
+package models;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Inventory of a whole fleet in primitive columns. Every product slot of every machine is a row, and the row's
+// fields sit at the same index of the stock, price, capacity, machine id, product id and name id columns.
+// Compared with a Product object per slot there are no object headers or references per product, and each
+// distinct product name is stored once for the fleet.
+//
+// Columns are split in chunks of CHUNK_SIZE rows that never move once allocated: growing the store copies only
+// the chunk directory, so a stock update running at the same time cannot be lost.
+public class InventoryStore implements InventoryTable {
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final VarHandle STOCK = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private volatile Chunk[] chunks = new Chunk[0];
+    private int rowCount; // guarded by this
+
+    // Interned names, a row holds the index into names
+    private volatile String[] names = new String[64];
+    private final Map<String, Integer> nameIds = new HashMap<>();
+
+    @Override
+    public synchronized int addRow(int machineId, int productId, String name, long price, int quantity,
+            int capacity) {
+        int row = rowCount;
+        int chunkIndex = row >>> CHUNK_SHIFT;
+        if (chunkIndex == chunks.length) {
+            Chunk[] grown = Arrays.copyOf(chunks, chunkIndex + 1);
+            grown[chunkIndex] = new Chunk();
+            chunks = grown;
+        }
+        rowCount++;
+        chunks[chunkIndex].machineIds[row & CHUNK_MASK] = machineId;
+        setRow(row, productId, name, price, quantity, capacity);
+        return row;
+    }
+
+    @Override
+    public synchronized void setRow(int row, int productId, String name, long price, int quantity, int capacity) {
+        Chunk chunk = chunk(row);
+        int offset = row & CHUNK_MASK;
+        chunk.productIds[offset] = productId;
+        chunk.nameIds[offset] = intern(name);
+        chunk.prices[offset] = price;
+        chunk.capacities[offset] = capacity;
+        // Holds of open sessions stay on the rewritten row
+        long current;
+        do {
+            current = (long) STOCK.getVolatile(chunk.stock, offset);
+        } while (!STOCK.weakCompareAndSet(chunk.stock, offset, current,
+                Product.withHeld(Product.pack(quantity, 0), Product.heldOf(current))));
+    }
+
+    @Override
+    public synchronized void retireRow(int row) {
+        chunk(row).machineIds[row & CHUNK_MASK] = -1;
+    }
+
+    @Override
+    public synchronized int getRowCount() {
+        return rowCount;
+    }
+
+    public synchronized int getNameCount() {
+        return nameIds.size();
+    }
+
+    @Override
+    public int getMachineId(int row) {
+        return chunk(row).machineIds[row & CHUNK_MASK];
+    }
+
+    @Override
+    public int getProductId(int row) {
+        return chunk(row).productIds[row & CHUNK_MASK];
+    }
+
+    @Override
+    public String getName(int row) {
+        return names[chunk(row).nameIds[row & CHUNK_MASK]];
+    }
+
+    @Override
+    public long getPrice(int row) {
+        return chunk(row).prices[row & CHUNK_MASK];
+    }
+
+    @Override
+    public int getCapacity(int row) {
+        return chunk(row).capacities[row & CHUNK_MASK];
+    }
+
+    // Same check as Product.tryUpdateQuantity
+    @Override
+    public boolean tryUpdateQuantity(int row, int quantity) {
+        Chunk chunk = chunk(row);
+        int offset = row & CHUNK_MASK;
+        int capacity = chunk.capacities[offset];
+        long current;
+        long updated;
+        do {
+            current = (long) STOCK.getVolatile(chunk.stock, offset);
+            long newQuantity = (long) Product.quantityOf(current) + quantity;
+            if (newQuantity > capacity || newQuantity < Product.heldOf(current)) {
+                return false;
+            }
+            updated = Product.pack((int) newQuantity, Product.heldOf(current));
+        } while (!STOCK.weakCompareAndSet(chunk.stock, offset, current, updated));
+        return true;
+    }
+
+    @Override
+    public boolean tryHold(int row, int quantity) {
+        Chunk chunk = chunk(row);
+        int offset = row & CHUNK_MASK;
+        long current;
+        do {
+            current = (long) STOCK.getVolatile(chunk.stock, offset);
+            if (quantity <= 0 || Product.quantityOf(current) - Product.heldOf(current) < quantity) {
+                return false;
+            }
+        } while (!STOCK.weakCompareAndSet(chunk.stock, offset, current, current + quantity));
+        return true;
+    }
+
+    @Override
+    public void releaseHold(int row, int quantity) {
+        long[] stock = chunk(row).stock;
+        int offset = row & CHUNK_MASK;
+        long current;
+        do {
+            current = (long) STOCK.getVolatile(stock, offset);
+        } while (!STOCK.weakCompareAndSet(stock, offset, current, Product.released(current, quantity)));
+    }
+
+    @Override
+    public void consumeHold(int row, int quantity) {
+        long[] stock = chunk(row).stock;
+        int offset = row & CHUNK_MASK;
+        long current;
+        do {
+            current = (long) STOCK.getVolatile(stock, offset);
+        } while (!STOCK.weakCompareAndSet(stock, offset, current, Product.consumed(current, quantity)));
+    }
+
+    @Override
+    public void increaseQuantity(int row, int quantity) {
+        STOCK.getAndAdd(chunk(row).stock, row & CHUNK_MASK, Product.pack(quantity, 0));
+    }
+
+    @Override
+    public long getStock(int row) {
+        return (long) STOCK.getVolatile(chunk(row).stock, row & CHUNK_MASK);
+    }
+
+    private Chunk chunk(int row) {
+        return chunks[row >>> CHUNK_SHIFT];
+    }
+
+    // Called with the lock held. A grown array is published only after the name is in it.
+    private int intern(String name) {
+        Integer id = nameIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        int nameId = nameIds.size();
+        String[] current = names;
+        if (nameId == current.length) {
+            current = Arrays.copyOf(current, nameId * 2);
+        }
+        current[nameId] = name;
+        names = current;
+        nameIds.put(name, nameId);
+        return nameId;
+    }
+
+    private static final class Chunk {
+        final long[] stock = new long[CHUNK_SIZE];
+        final long[] prices = new long[CHUNK_SIZE];
+        final int[] capacities = new int[CHUNK_SIZE];
+        final int[] machineIds = new int[CHUNK_SIZE];
+        final int[] productIds = new int[CHUNK_SIZE];
+        final int[] nameIds = new int[CHUNK_SIZE];
+    }
+}
@@ -0,0 +1,68 @@
+package models;
+
+// Product slots of a fleet stored as numbered rows, one per slot of each machine, with stock packed like
+// Product's (quantity high, held low) and changed by the same compare-and-set rules. ColumnarDispenser sells
+// from any implementation.
+public interface InventoryTable {
+    // Adds a row and returns its number. Rows are never reused, so a sale still holding the row of a removed
+    // product cannot change another product's stock.
+    int addRow(int machineId, int productId, String name, long price, int quantity, int capacity);
+
+    // Overwrites a row in place, for a product restocked under the same id. Holds on the row are kept.
+    void setRow(int row, int productId, String name, long price, int quantity, int capacity);
+
+    // Marks the row of a removed product, it no longer belongs to any machine
+    void retireRow(int row);
+
+    int getRowCount();
+
+    // Machine of the row, -1 once retired
+    int getMachineId(int row);
+
+    int getProductId(int row);
+
+    String getName(int row);
+
+    long getPrice(int row);
+
+    int getCapacity(int row);
+
+    // Quantity and held units in one read, packed as in Product
+    long getStock(int row);
+
+    // False, and nothing changed, if the quantity would go above capacity or below the units held by sessions
+    boolean tryUpdateQuantity(int row, int quantity);
+
+    boolean tryHold(int row, int quantity);
+
+    // Both clamp to the units actually held, as in Product
+    void releaseHold(int row, int quantity);
+
+    void consumeHold(int row, int quantity);
+
+    void increaseQuantity(int row, int quantity);
+
+    default int getQuantity(int row) {
+        return Product.quantityOf(getStock(row));
+    }
+
+    default int getHeld(int row) {
+        return Product.heldOf(getStock(row));
+    }
+
+    default int getAvailable(int row) {
+        long stock = getStock(row);
+        return Product.quantityOf(stock) - Product.heldOf(stock);
+    }
+
+    // Detached copy of the row, later stock changes are not reflected in it
+    default Product toProduct(int row) {
+        return Product.copyOf(getProductId(row), getName(row), getPrice(row), getStock(row), getCapacity(row));
+    }
+
+    default ProductView toView(int row) {
+        long stock = getStock(row);
+        return new ProductView(getProductId(row), getName(row), getPrice(row), Product.quantityOf(stock),
+                Product.heldOf(stock), getCapacity(row));
+    }
+}
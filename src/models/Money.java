@@ -0,0 +1,42 @@
+package models;
+
+// Money is a long count of minor units (cents). Prices, coin values, totals and change all use it,
+// so the purchase path is integer arithmetic only and every sum or product is overflow-checked.
+public final class Money {
+    public static final int MINOR_UNITS_PER_MAJOR = 100;
+
+    private Money() {
+    }
+
+    // Converts a configured amount such as 12.50 to minor units, rounding to the nearest cent
+    public static long ofMajor(double major) {
+        if (Double.isNaN(major) || Double.isInfinite(major)) {
+            throw new IllegalArgumentException("Amount must be a finite number");
+        }
+
+        double minor = Math.rint(major * MINOR_UNITS_PER_MAJOR);
+        if (minor >= 0x1p63 || minor < -0x1p63) {
+            throw new ArithmeticException("Amount is out of range");
+        }
+        return (long) minor;
+    }
+
+    public static long add(long amount, long other) {
+        return Math.addExact(amount, other);
+    }
+
+    public static long subtract(long amount, long other) {
+        return Math.subtractExact(amount, other);
+    }
+
+    public static long multiply(long amount, int quantity) {
+        return Math.multiplyExact(amount, (long) quantity);
+    }
+
+    public static String format(long amount) {
+        long major = amount / MINOR_UNITS_PER_MAJOR;
+        long minor = Math.abs(amount % MINOR_UNITS_PER_MAJOR);
+        String sign = amount < 0 && major == 0 ? "-" : "";
+        return sign + major + "." + (minor < 10 ? "0" : "") + minor;
+    }
+}
@@ -0,0 +1,318 @@
+package models;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Fleet inventory kept outside the Java heap, so millions of rows add nothing to what the collector scans. Each
+// row is a fixed 64-byte record in direct memory:
+//   long stock (quantity high, held low), long price, int machine id, int product id, int capacity,
+//   int name length, 32 bytes of UTF-8 name
+// Stock changes are compare-and-sets on the record through a byte buffer VarHandle, with the same rules as
+// InventoryStore. Records sit in chunks of CHUNK_ROWS that never move once allocated.
+//
+// A store opened with map(path) keeps the records in a memory-mapped file behind a 64-byte header (int magic,
+// int version, int record size, int chunk rows, int row count), little endian whatever the platform so the file
+// can move between machines. Opening the file again is a warm start: nothing is decoded up front,
+// ColumnarDispenser.restoreFleet rebuilds the per-machine indexes from the rows. Holds belong to sessions that
+// did not survive the restart, so they are cleared when the file is opened.
+public class OffHeapInventoryStore implements InventoryTable, AutoCloseable {
+    static final int MAGIC = 0x564D4954;
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 64;
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_ROWS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_ROWS - 1;
+    private static final long CHUNK_BYTES = (long) CHUNK_ROWS * RECORD_SIZE;
+    private static final int MAX_NAME_BYTES = 32;
+
+    private static final int STOCK = 0;
+    private static final int PRICE = 8;
+    private static final int MACHINE_ID = 16;
+    private static final int PRODUCT_ID = 20;
+    private static final int CAPACITY = 24;
+    private static final int NAME_LENGTH = 28;
+    private static final int NAME = 32;
+    private static final int ROW_COUNT = 16;
+
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ORDER);
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ORDER);
+
+    // Null for a store that lives only in memory
+    private final FileChannel channel;
+    private final ByteBuffer header;
+    private volatile ByteBuffer[] chunks;
+    private int rowCount; // guarded by this
+
+    private OffHeapInventoryStore(FileChannel channel, ByteBuffer header) {
+        this.channel = channel;
+        this.header = header;
+        this.rowCount = (int) INTS.getVolatile(header, ROW_COUNT);
+        ByteBuffer[] existing = new ByteBuffer[(rowCount + CHUNK_ROWS - 1) >>> CHUNK_SHIFT];
+        for (int i = 0; i < existing.length; i++) {
+            existing[i] = newChunk(i);
+        }
+        this.chunks = existing;
+    }
+
+    // Direct memory only, gone when the store is garbage collected
+    public static OffHeapInventoryStore allocate() {
+        ByteBuffer header = ByteBuffer.allocateDirect(HEADER_SIZE + 8).alignedSlice(8).order(ORDER);
+        writeHeader(header);
+        return new OffHeapInventoryStore(null, header);
+    }
+
+    // Opens the table in the file, creating it when the file is new or empty
+    public static OffHeapInventoryStore map(Path path) {
+        FileChannel channel;
+        MappedByteBuffer header;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            boolean created = channel.size() == 0;
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ORDER);
+            if (created) {
+                writeHeader(header);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Inventory table cannot be opened", e);
+        }
+
+        if (header.getInt(0) != MAGIC) {
+            close(channel);
+            throw new IllegalArgumentException("Not an inventory table");
+        }
+        if (header.getInt(4) != VERSION || header.getInt(8) != RECORD_SIZE || header.getInt(12) != CHUNK_ROWS) {
+            close(channel);
+            throw new IllegalArgumentException("Unsupported inventory table version " + header.getInt(4));
+        }
+        OffHeapInventoryStore store = new OffHeapInventoryStore(channel, header);
+        store.clearHolds();
+        return store;
+    }
+
+    @Override
+    public synchronized int addRow(int machineId, int productId, String name, long price, int quantity,
+            int capacity) {
+        int row = rowCount;
+        int chunkIndex = row >>> CHUNK_SHIFT;
+        if (chunkIndex == chunks.length) {
+            ByteBuffer[] grown = Arrays.copyOf(chunks, chunkIndex + 1);
+            grown[chunkIndex] = newChunk(chunkIndex);
+            chunks = grown;
+        }
+        INTS.set(chunks[chunkIndex], offset(row) + MACHINE_ID, machineId);
+        // A record past the row count on disk can hold a row that was never forced, it starts with no holds
+        LONGS.setVolatile(chunks[chunkIndex], offset(row) + STOCK, 0L);
+        setRow(row, productId, name, price, quantity, capacity);
+        rowCount++;
+        // A mapped store writes its row count to the header in force(), after the records
+        if (channel == null) {
+            INTS.setRelease(header, ROW_COUNT, rowCount);
+        }
+        return row;
+    }
+
+    @Override
+    public synchronized void setRow(int row, int productId, String name, long price, int quantity, int capacity) {
+        byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        if (encoded.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("Product name is too long");
+        }
+        ByteBuffer chunk = chunk(row);
+        int offset = offset(row);
+        INTS.set(chunk, offset + PRODUCT_ID, productId);
+        INTS.set(chunk, offset + CAPACITY, capacity);
+        INTS.set(chunk, offset + NAME_LENGTH, encoded.length);
+        chunk.put(offset + NAME, encoded);
+        LONGS.set(chunk, offset + PRICE, price);
+        // Holds of open sessions stay on the rewritten row
+        long current;
+        do {
+            current = (long) LONGS.getVolatile(chunk, offset + STOCK);
+        } while (!LONGS.weakCompareAndSet(chunk, offset + STOCK, current,
+                Product.withHeld(Product.pack(quantity, 0), Product.heldOf(current))));
+    }
+
+    @Override
+    public synchronized void retireRow(int row) {
+        INTS.setVolatile(chunk(row), offset(row) + MACHINE_ID, -1);
+    }
+
+    @Override
+    public synchronized int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getMachineId(int row) {
+        return (int) INTS.getVolatile(chunk(row), offset(row) + MACHINE_ID);
+    }
+
+    @Override
+    public int getProductId(int row) {
+        return (int) INTS.get(chunk(row), offset(row) + PRODUCT_ID);
+    }
+
+    @Override
+    public String getName(int row) {
+        ByteBuffer chunk = chunk(row);
+        int offset = offset(row);
+        byte[] name = new byte[(int) INTS.get(chunk, offset + NAME_LENGTH)];
+        chunk.get(offset + NAME, name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public long getPrice(int row) {
+        return (long) LONGS.get(chunk(row), offset(row) + PRICE);
+    }
+
+    @Override
+    public int getCapacity(int row) {
+        return (int) INTS.get(chunk(row), offset(row) + CAPACITY);
+    }
+
+    @Override
+    public long getStock(int row) {
+        return (long) LONGS.getVolatile(chunk(row), offset(row) + STOCK);
+    }
+
+    // Same check as Product.tryUpdateQuantity
+    @Override
+    public boolean tryUpdateQuantity(int row, int quantity) {
+        ByteBuffer chunk = chunk(row);
+        int stock = offset(row) + STOCK;
+        int capacity = (int) INTS.get(chunk, offset(row) + CAPACITY);
+        long current;
+        long updated;
+        do {
+            current = (long) LONGS.getVolatile(chunk, stock);
+            long newQuantity = (long) Product.quantityOf(current) + quantity;
+            if (newQuantity > capacity || newQuantity < Product.heldOf(current)) {
+                return false;
+            }
+            updated = Product.pack((int) newQuantity, Product.heldOf(current));
+        } while (!LONGS.weakCompareAndSet(chunk, stock, current, updated));
+        return true;
+    }
+
+    @Override
+    public boolean tryHold(int row, int quantity) {
+        ByteBuffer chunk = chunk(row);
+        int stock = offset(row) + STOCK;
+        long current;
+        do {
+            current = (long) LONGS.getVolatile(chunk, stock);
+            if (quantity <= 0 || Product.quantityOf(current) - Product.heldOf(current) < quantity) {
+                return false;
+            }
+        } while (!LONGS.weakCompareAndSet(chunk, stock, current, current + quantity));
+        return true;
+    }
+
+    @Override
+    public void releaseHold(int row, int quantity) {
+        ByteBuffer chunk = chunk(row);
+        int stock = offset(row) + STOCK;
+        long current;
+        do {
+            current = (long) LONGS.getVolatile(chunk, stock);
+        } while (!LONGS.weakCompareAndSet(chunk, stock, current, Product.released(current, quantity)));
+    }
+
+    @Override
+    public void consumeHold(int row, int quantity) {
+        ByteBuffer chunk = chunk(row);
+        int stock = offset(row) + STOCK;
+        long current;
+        do {
+            current = (long) LONGS.getVolatile(chunk, stock);
+        } while (!LONGS.weakCompareAndSet(chunk, stock, current, Product.consumed(current, quantity)));
+    }
+
+    @Override
+    public void increaseQuantity(int row, int quantity) {
+        LONGS.getAndAdd(chunk(row), offset(row) + STOCK, Product.pack(quantity, 0));
+    }
+
+    // Writes the mapped pages to disk. Until then a power cut can lose the latest changes. The row count in the
+    // header only grows here, once the records it covers are on disk, so a warm start never sees a row whose
+    // record was lost.
+    public synchronized void force() {
+        if (channel == null) {
+            return;
+        }
+        for (ByteBuffer chunk : chunks) {
+            ((MappedByteBuffer) chunk).force();
+        }
+        INTS.setRelease(header, ROW_COUNT, rowCount);
+        ((MappedByteBuffer) header).force();
+    }
+
+    @Override
+    public void close() {
+        force();
+        if (channel != null) {
+            close(channel);
+        }
+    }
+
+    // Zeroes the held half of every stock word
+    private void clearHolds() {
+        for (int row = 0; row < rowCount; row++) {
+            ByteBuffer chunk = chunk(row);
+            int stock = offset(row) + STOCK;
+            LONGS.setVolatile(chunk, stock, Product.pack(Product.quantityOf((long) LONGS.get(chunk, stock)), 0));
+        }
+    }
+
+    private ByteBuffer newChunk(int chunkIndex) {
+        if (channel == null) {
+            return ByteBuffer.allocateDirect((int) CHUNK_BYTES + 8).alignedSlice(8).order(ORDER);
+        }
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + chunkIndex * CHUNK_BYTES, CHUNK_BYTES)
+                    .order(ORDER);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Inventory table cannot grow", e);
+        }
+    }
+
+    private ByteBuffer chunk(int row) {
+        return chunks[row >>> CHUNK_SHIFT];
+    }
+
+    private static int offset(int row) {
+        return (row & CHUNK_MASK) * RECORD_SIZE;
+    }
+
+    private static void writeHeader(ByteBuffer header) {
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putInt(8, RECORD_SIZE);
+        header.putInt(12, CHUNK_ROWS);
+        header.putInt(ROW_COUNT, 0);
+    }
+
+    private static void close(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Inventory table cannot be closed", e);
+        }
+    }
+}
@@ -1,20 +1,49 @@
 package models;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 public class Product {
+    private static final VarHandle STOCK;
+
+    static {
+        try {
+            STOCK = MethodHandles.lookup().findVarHandle(Product.class, "stock", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private int id;
     private String name;
-    private double price;
-    private int quantity;
+    private long price; // minor units
+    // Units in the slot (high 32 bits) and units of them held by open cart sessions (low 32 bits), packed so
+    // both change in one compare-and-set and concurrent sessions cannot oversell
+    private volatile long stock;
     private int capacity;
 
     public Product(int id, String name, double price, int quantity, int capacity) {
         this.id = id;
         this.name = name;
-        this.price = price;
-        this.quantity = quantity;
+        this.price = Money.ofMajor(price);
+        this.stock = pack(quantity, 0);
         this.capacity = capacity;
     }
 
+    // Price already in minor units, used when loading saved machine state
+    public static Product withMinorPrice(int id, String name, long price, int quantity, int capacity) {
+        Product product = new Product(id, name, 0, quantity, capacity);
+        product.price = price;
+        return product;
+    }
+
+    // Copy of a product whose fields are stored elsewhere, stock packed as in the stock field
+    static Product copyOf(int id, String name, long price, long stock, int capacity) {
+        Product product = withMinorPrice(id, name, price, 0, capacity);
+        product.stock = stock;
+        return product;
+    }
+
     public int getId() {
         return id;
     }
@@ -27,12 +56,29 @@ public class Product {
         this.name = name;
     }
 
-    public double getPrice() {
+    public long getPrice() {
         return price;
     }
 
+    // Units physically in the slot, held ones included
     public int getQuantity() {
-        return quantity;
+        return quantityOf(stock);
+    }
+
+    // Units held by cart sessions that have not checked out yet
+    public int getHeld() {
+        return heldOf(stock);
+    }
+
+    // Quantity and held units in one read, packed as in the stock field
+    long getStock() {
+        return stock;
+    }
+
+    // Units a new selection can still get
+    public int getAvailable() {
+        long current = stock;
+        return quantityOf(current) - heldOf(current);
     }
 
     public int getCapacity() {
@@ -40,32 +86,116 @@ public class Product {
     }
 
     public void updateQuantity(int quantity) {
-        if (!canUpdateQuantity(quantity)) {
+        if (!tryUpdateQuantity(quantity)) {
             throw new IllegalArgumentException("Quantity is greater than capacity or less than 0");
         }
-        this.quantity += quantity;
+    }
+
+    // Lock-free check and update in one step, false (and nothing changed) if the stock would go above capacity
+    // or below the units held by sessions
+    public boolean tryUpdateQuantity(int quantity) {
+        long current;
+        long updated;
+        do {
+            current = stock;
+            long newQuantity = (long) quantityOf(current) + quantity;
+            if (newQuantity > capacity || newQuantity < heldOf(current)) {
+                return false;
+            }
+            updated = pack((int) newQuantity, heldOf(current));
+        } while (!STOCK.weakCompareAndSet(this, current, updated));
+        return true;
     }
 
     public boolean canUpdateQuantity(int quantity) {
-        return this.quantity + quantity <= capacity && this.quantity + quantity >= 0;
+        long current = stock;
+        long newQuantity = (long) quantityOf(current) + quantity;
+        return newQuantity <= capacity && newQuantity >= heldOf(current);
+    }
+
+    // Sets units aside for a cart session, false if fewer are available
+    public boolean tryHold(int quantity) {
+        long current;
+        do {
+            current = stock;
+            if (quantity <= 0 || quantityOf(current) - heldOf(current) < quantity) {
+                return false;
+            }
+        } while (!STOCK.weakCompareAndSet(this, current, current + quantity));
+        return true;
+    }
+
+    // Gives held units back to the available stock, never more than are held
+    public void releaseHold(int quantity) {
+        long current;
+        do {
+            current = stock;
+        } while (!STOCK.weakCompareAndSet(this, current, released(current, quantity)));
+    }
+
+    // Held units leave the machine: both the quantity and the hold drop, by no more than is held
+    public void consumeHold(int quantity) {
+        long current;
+        do {
+            current = stock;
+        } while (!STOCK.weakCompareAndSet(this, current, consumed(current, quantity)));
+    }
+
+    // Takes over the holds of the product this one replaces, so the sessions holding them can still give them
+    // back. Called with the dispenser's lock held.
+    void carryHoldsFrom(Product previous) {
+        long current;
+        do {
+            current = stock;
+        } while (!STOCK.weakCompareAndSet(this, current, withHeld(current, heldOf(previous.stock))));
     }
 
     @Override
     public String toString() {
-        return "Product [id=" + id + ", name=" + name + ", price=" + price + ", quantity=" + quantity + "]";
+        return "Product [id=" + id + ", name=" + name + ", price=" + Money.format(price) + ", quantity="
+                + getQuantity() + "]";
     }
 
     public boolean isAvailable() {
-        return quantity > 0;
+        return getAvailable() > 0;
     }
 
     public void reduceQuantity(int quantity) {
         if (isAvailable()) {
-            this.quantity -= quantity;
+            STOCK.getAndAdd(this, -pack(quantity, 0));
         }
     }
 
     public void increaseQuantity(int quantity) {
-        this.quantity += quantity;
+        STOCK.getAndAdd(this, pack(quantity, 0));
+    }
+
+    // Hold changes shared with the inventory tables. A hold can outlive the units it was placed on, e.g. when
+    // maintenance replaces a product, so they clamp instead of letting held go negative and borrow from quantity.
+    static long released(long stock, int quantity) {
+        int held = heldOf(stock);
+        return pack(quantityOf(stock), held - Math.max(0, Math.min(held, quantity)));
+    }
+
+    static long consumed(long stock, int quantity) {
+        int units = Math.max(0, Math.min(heldOf(stock), quantity));
+        return pack(quantityOf(stock) - units, heldOf(stock) - units);
+    }
+
+    // Stock with the given held units, never more than its quantity
+    static long withHeld(long stock, int held) {
+        return pack(quantityOf(stock), Math.max(0, Math.min(held, quantityOf(stock))));
+    }
+
+    static long pack(int quantity, int held) {
+        return ((long) quantity << 32) | (held & 0xFFFFFFFFL);
+    }
+
+    static int quantityOf(long stock) {
+        return (int) (stock >>> 32);
+    }
+
+    static int heldOf(long stock) {
+        return (int) stock;
     }
-}
\ No newline at end of file
+}
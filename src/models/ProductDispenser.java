@@ -0,0 +1,60 @@
+package models;
+
+import java.util.Collection;
+
+// Product slots of one machine, as DispenserService, SelectProductService and SessionService use them. Dispenser
+// keeps a Product object per slot, ColumnarDispenser keeps the slots as rows of an InventoryTable shared by the
+// fleet. Stock changes are lock-free compare-and-sets in both.
+public interface ProductDispenser {
+    int getId();
+
+    void addProduct(Product product);
+
+    // Publishes the whole batch as one catalog version
+    void addProducts(Collection<Product> batch);
+
+    void removeProduct(int id);
+
+    // Null if the product is not in the dispenser
+    Product getProduct(int id);
+
+    Collection<Product> getProducts();
+
+    // Consistent view of the whole catalog, never changed afterwards
+    CatalogSnapshot snapshot();
+
+    // Read straight from the slot without building a Product, -1 if the product is not in the dispenser
+    long getPrice(int id);
+
+    int getQuantity(int id);
+
+    boolean isProductAvailable(int id);
+
+    boolean canDispenseProduct(int id, int quantity);
+
+    // Checks and dispenses one line in a single step, false with the stock untouched if it falls short
+    boolean tryDispenseProduct(int id, int quantity);
+
+    void updateQuantity(int id, int quantity);
+
+    // Takes the stock of every cart line or of none
+    boolean reserveProducts(IntIntMap cart);
+
+    // Puts back the stock of a reservation that will not be dispensed
+    void releaseProducts(IntIntMap cart);
+
+    // Soft hold for a cart session, the units stay in the slot but no other selection or sale can take them
+    boolean holdProduct(int id, int quantity);
+
+    // Gives back the holds of a whole cart, or of one line. Lines whose product was removed are skipped.
+    void releaseHeld(IntIntMap cart);
+
+    void releaseHeld(int id, int quantity);
+
+    // Dispenses a cart whose units are all held by the session checking out
+    void dispenseHeld(IntIntMap cart);
+
+    default void showProducts() {
+        snapshot().forEach(product -> System.out.println(product.toString()));
+    }
+}
@@ -0,0 +1,68 @@
+package models;
+
+// Immutable copy of a product as published in a CatalogSnapshot
+public final class ProductView {
+    private final int id;
+    private final String name;
+    private final long price; // minor units
+    private final int quantity;
+    private final int held;
+    private final int capacity;
+
+    public ProductView(Product product) {
+        this.id = product.getId();
+        this.name = product.getName();
+        this.price = product.getPrice();
+        // One read of the packed stock, so quantity and held always belong together
+        long stock = product.getStock();
+        this.quantity = Product.quantityOf(stock);
+        this.held = Product.heldOf(stock);
+        this.capacity = product.getCapacity();
+    }
+
+    ProductView(int id, String name, long price, int quantity, int held, int capacity) {
+        this.id = id;
+        this.name = name;
+        this.price = price;
+        this.quantity = quantity;
+        this.held = held;
+        this.capacity = capacity;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getPrice() {
+        return price;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public int getHeld() {
+        return held;
+    }
+
+    public int getAvailable() {
+        return Math.max(0, quantity - held);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean isAvailable() {
+        return getAvailable() > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Product [id=" + id + ", name=" + name + ", price=" + Money.format(price) + ", quantity=" + quantity + "]";
+    }
+}
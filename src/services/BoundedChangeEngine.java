@@ -0,0 +1,126 @@
+package services;
+
+// Exact bounded coin change. reachable[s] tells whether s can be paid with the denominations seen so
+// far and used[level][s] how many coins of that level the first solution found for s takes. Levels run
+// from the largest value to the smallest, so walking them back prefers large coins over small ones.
+// All tables are scratch buffers that are only grown, never reallocated per call.
+public class BoundedChangeEngine implements ChangeEngine {
+    // Small defaults keep fleets of machines cheap, the tables grow once to the largest change actually seen
+    private static final int DEFAULT_MAX_DENOMINATIONS = 8;
+    private static final int DEFAULT_MAX_CHANGE = 128;
+
+    private boolean[] reachable;
+    private int[][] used;
+    private int[] order;
+
+    public BoundedChangeEngine() {
+        this(DEFAULT_MAX_DENOMINATIONS, DEFAULT_MAX_CHANGE);
+    }
+
+    public BoundedChangeEngine(int maxDenominations, int maxChange) {
+        if (maxDenominations <= 0 || maxChange < 0) {
+            throw new IllegalArgumentException("Change engine limits must be positive");
+        }
+        this.reachable = new boolean[maxChange + 1];
+        this.used = new int[maxDenominations][maxChange + 1];
+        this.order = new int[maxDenominations];
+    }
+
+    public boolean makeChange(int amount, int[] values, int[] counts, int size, int[] take) {
+        if (amount < 0) {
+            return false;
+        }
+
+        for (int i = 0; i < size; i++) {
+            take[i] = 0;
+        }
+
+        if (amount == 0) {
+            return true;
+        }
+
+        // More than the whole vault can never be paid, and the tables below grow with the amount
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += (long) values[i] * counts[i];
+        }
+        if (amount > total) {
+            return false;
+        }
+
+        ensureCapacity(size, amount);
+        sortByValueDescending(values, size);
+
+        boolean[] reachable = this.reachable;
+        reachable[0] = true;
+        for (int s = 1; s <= amount; s++) {
+            reachable[s] = false;
+        }
+
+        // Stop at the first level that reaches the amount, the levels after it would not take any coin
+        int lastLevel = -1;
+        for (int level = 0; level < size && !reachable[amount]; level++) {
+            int index = order[level];
+            int value = values[index];
+            int count = counts[index];
+            int[] usedAtLevel = used[level];
+            lastLevel = level;
+
+            if (value > amount || count == 0) {
+                continue;
+            }
+
+            for (int s = 0; s <= amount; s++) {
+                if (reachable[s]) {
+                    usedAtLevel[s] = 0;
+                } else if (s >= value && reachable[s - value] && usedAtLevel[s - value] < count) {
+                    reachable[s] = true;
+                    usedAtLevel[s] = usedAtLevel[s - value] + 1;
+                }
+            }
+        }
+
+        if (!reachable[amount]) {
+            return false;
+        }
+
+        int remaining = amount;
+        for (int level = lastLevel; level >= 0; level--) {
+            int index = order[level];
+            if (values[index] > amount || counts[index] == 0) {
+                continue;
+            }
+            int takeCount = used[level][remaining];
+            take[index] = takeCount;
+            remaining -= takeCount * values[index];
+        }
+
+        return true;
+    }
+
+    private void ensureCapacity(int size, int amount) {
+        int changeCapacity = Math.max(reachable.length, amount + 1);
+        int denominationCapacity = Math.max(used.length, size);
+
+        if (changeCapacity == reachable.length && denominationCapacity == used.length) {
+            return;
+        }
+
+        reachable = new boolean[changeCapacity];
+        used = new int[denominationCapacity][changeCapacity];
+        order = new int[denominationCapacity];
+    }
+
+    // Insertion sort of indexes, the vault only has a handful of denominations
+    private void sortByValueDescending(int[] values, int size) {
+        for (int i = 0; i < size; i++) {
+            int index = i;
+            int j = i - 1;
+            while (j >= 0 && values[order[j]] < values[index]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = index;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package services;
+
+import models.IntIntMap;
+import models.IntLongMap;
+
+// One customer at one screen of a multi-screen machine. Every unit in the cart is held in the dispenser until
+// the session checks out, is closed or expires. All access goes through SessionService, which locks the session.
+public class CartSession {
+    final int id;
+    final IntIntMap cart = new IntIntMap();
+    // Unit price of every line as selected, as in SelectProductService
+    final IntLongMap unitPrices = new IntLongMap();
+    long totalPrice; // minor units
+    int itemCount;
+    long deadline; // clock value after which the holds are reclaimed
+    TimingWheel.Timeout expiry; // fires at the deadline
+    boolean closed;
+
+    CartSession(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public synchronized long getTotalPrice() {
+        return totalPrice;
+    }
+
+    public synchronized int getItemCount() {
+        return itemCount;
+    }
+
+    public synchronized int getQuantity(int productId) {
+        return cart.get(productId);
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,6 @@
+package services;
+
+public interface ChangeEngine {
+    // Fills take[i] with how many coins of values[i] to pay out; returns false if amount cannot be paid
+    boolean makeChange(int amount, int[] values, int[] counts, int size, int[] take);
+}
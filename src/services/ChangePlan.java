@@ -0,0 +1,56 @@
+package services;
+
+// Outcome of DenominationService.planTransaction: the coins accepted into the vault, the coins paid out as
+// change and the counts the vault will hold afterwards. A plan reserves nothing; commit applies it in one
+// step if the vault has not changed since it was computed, discard simply forgets it. Instances are meant to
+// be kept and reused, planning overwrites the previous content.
+public class ChangePlan {
+    int[] values;
+    int[] accept;
+    int[] take;
+    int[] resultingCounts;
+    long change;
+    boolean feasible;
+    long vaultVersion;
+    DenominationService owner;
+
+    ChangePlan(int size) {
+        this.values = new int[size];
+        this.accept = new int[size];
+        this.take = new int[size];
+        this.resultingCounts = new int[size];
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public boolean isFeasible() {
+        return feasible;
+    }
+
+    public long getChange() {
+        return change;
+    }
+
+    public int getValue(int index) {
+        return values[index];
+    }
+
+    public int getAccepted(int index) {
+        return accept[index];
+    }
+
+    public int getPaidOut(int index) {
+        return take[index];
+    }
+
+    public int getResultingCount(int index) {
+        return resultingCounts[index];
+    }
+
+    public void discard() {
+        feasible = false;
+        owner = null;
+    }
+}
@@ -0,0 +1,161 @@
+package services;
+
+import models.Denomination;
+import models.IntIntMap;
+
+// Flat alternative to DenominationChainService. Values, counts and capacities live in parallel int arrays
+// sorted by value from largest to smallest, so every operation is a plain loop without recursion or boxing.
+public class DenominationArrayService implements DenominationVault {
+    final int[] values;
+    final int[] counts;
+    final int[] capacities;
+
+    public DenominationArrayService(Denomination... denominations) {
+        int size = denominations.length;
+        this.values = new int[size];
+        this.counts = new int[size];
+        this.capacities = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            Denomination denomination = denominations[i];
+            int j = i - 1;
+            while (j >= 0 && values[j] < denomination.getValue()) {
+                values[j + 1] = values[j];
+                counts[j + 1] = counts[j];
+                capacities[j + 1] = capacities[j];
+                j--;
+            }
+            values[j + 1] = denomination.getValue();
+            counts[j + 1] = denomination.getCount();
+            capacities[j + 1] = denomination.getCapacity();
+        }
+    }
+
+    public int getCount(int value) {
+        int index = indexOf(value);
+        return index < 0 ? 0 : counts[index];
+    }
+
+    public boolean canAddMoney(IntIntMap money) {
+        for (int slot = money.firstSlot(); slot >= 0; slot = money.nextSlot(slot)) {
+            int index = indexOf(money.keyAt(slot));
+            if (index >= 0 && (long) counts[index] + money.valueAt(slot) > capacities[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean addMoney(IntIntMap money) {
+        if (!canAddMoney(money)) {
+            return false;
+        }
+
+        for (int slot = money.firstSlot(); slot >= 0; slot = money.nextSlot(slot)) {
+            int index = indexOf(money.keyAt(slot));
+            if (index >= 0) {
+                counts[index] += money.valueAt(slot);
+            }
+        }
+        return true;
+    }
+
+    public boolean canWithdrawMoney(long amount) {
+        if (amount < 0) {
+            return false;
+        }
+
+        long remaining = amount;
+        for (int i = firstAtMost(amount); i < values.length && remaining > 0; i++) {
+            int value = values[i];
+            if (value <= remaining) {
+                remaining -= (long) takeCount(remaining, value, counts[i]) * value;
+            }
+        }
+        return remaining == 0;
+    }
+
+    public boolean withdrawMoney(long amount) {
+        if (!canWithdrawMoney(amount)) {
+            return false;
+        }
+
+        long remaining = amount;
+        for (int i = firstAtMost(amount); i < values.length && remaining > 0; i++) {
+            int value = values[i];
+            if (value <= remaining) {
+                int takeCount = takeCount(remaining, value, counts[i]);
+                counts[i] -= takeCount;
+                remaining -= (long) takeCount * value;
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public void collect(int[] values, int[] counts) {
+        System.arraycopy(this.values, 0, values, 0, this.values.length);
+        System.arraycopy(this.counts, 0, counts, 0, this.counts.length);
+    }
+
+    public void collectCapacities(int[] capacities) {
+        System.arraycopy(this.capacities, 0, capacities, 0, this.capacities.length);
+    }
+
+    public void adjustCounts(int[] deposit, int[] withdraw) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += deposit[i] - withdraw[i];
+        }
+    }
+
+    public void withdrawCounts(int[] take) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] -= take[i];
+        }
+    }
+
+    // Skips the division when the whole stock of this value fits into the remaining amount
+    private static int takeCount(long remaining, int value, int count) {
+        if ((long) count * value <= remaining) {
+            return count;
+        }
+        return (int) (remaining / value);
+    }
+
+    // Index of the largest value not above amount, values.length if there is none
+    int firstAtMost(long amount) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] > amount) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Binary search over the descending value array
+    int indexOf(int value) {
+        int low = 0;
+        int high = values.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midValue = values[mid];
+            if (midValue == value) {
+                return mid;
+            }
+            if (midValue > value) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return -1;
+    }
+}
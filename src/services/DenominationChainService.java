@@ -1,10 +1,14 @@
 package services;
 
-import java.util.Map;
-
+import jdk.jfr.EventType;
 import models.Denomination;
+import models.IntIntMap;
+import models.Money;
+
+public class DenominationChainService implements DenominationVault {
+    // Checked before building an event, so a disabled recording costs one flag read
+    private static final EventType VAULT_EVENTS = EventType.getEventType(VaultOperationEvent.class);
 
-public class DenominationChainService {
     Denomination denomination;
     DenominationChainService next;
 
@@ -16,7 +20,7 @@ public class DenominationChainService {
         this.next = next;
     }
 
-    public boolean canAddMoney(Map<Integer, Integer> money) {
+    public boolean canAddMoney(IntIntMap money) {
         int value = denomination.getValue();
         int count = denomination.getCount();
 
@@ -33,7 +37,27 @@ public class DenominationChainService {
         return next.canAddMoney(money);
     }
 
-    public boolean addMoney(Map<Integer, Integer> money) {
+    public boolean addMoney(IntIntMap money) {
+        if (!VAULT_EVENTS.isEnabled()) {
+            return add(money);
+        }
+        VaultOperationEvent event = new VaultOperationEvent();
+        event.begin();
+        boolean added = add(money);
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = "add";
+            for (int slot = money.firstSlot(); slot >= 0; slot = money.nextSlot(slot)) {
+                event.amount = Money.add(event.amount, Money.multiply(money.keyAt(slot), money.valueAt(slot)));
+                event.coins += money.valueAt(slot);
+            }
+            event.succeeded = added;
+            event.commit();
+        }
+        return added;
+    }
+
+    boolean add(IntIntMap money) {
         int value = denomination.getValue();
         int count = denomination.getCount();
 
@@ -50,14 +74,14 @@ public class DenominationChainService {
             return true;
         }
 
-        boolean response = next.addMoney(money);
+        boolean response = next.add(money);
         if (!response && money.containsKey(value)) {
             denomination.withdrawMoney(money.get(value));
         }
         return response;
     }
 
-    public boolean canWithdrawMoney(int amount) {
+    public boolean canWithdrawMoney(long amount) {
         if (amount == 0) {
             return true;
         }
@@ -69,8 +93,8 @@ public class DenominationChainService {
         int value = denomination.getValue();
         int count = denomination.getCount();
 
-        int takeCount = Math.min(amount / value, count);
-        int remaining = amount - (takeCount * value);
+        int takeCount = (int) Math.min(amount / value, count);
+        long remaining = amount - ((long) takeCount * value);
 
         if (next == null) {
             return remaining == 0;
@@ -79,7 +103,24 @@ public class DenominationChainService {
         return next.canWithdrawMoney(remaining);
     }
 
-    public boolean withdrawMoney(int amount) {
+    public boolean withdrawMoney(long amount) {
+        if (!VAULT_EVENTS.isEnabled()) {
+            return withdraw(amount);
+        }
+        VaultOperationEvent event = new VaultOperationEvent();
+        event.begin();
+        boolean withdrawn = withdraw(amount);
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = "withdraw";
+            event.amount = amount;
+            event.succeeded = withdrawn;
+            event.commit();
+        }
+        return withdrawn;
+    }
+
+    boolean withdraw(long amount) {
         if (amount == 0) {
             return true;
         }
@@ -91,15 +132,15 @@ public class DenominationChainService {
         int value = denomination.getValue();
         int count = denomination.getCount();
 
-        int takeCount = Math.min(amount / value, count);
-        int remaining = amount - (takeCount * value);
+        int takeCount = (int) Math.min(amount / value, count);
+        long remaining = amount - ((long) takeCount * value);
 
         if (next == null) {
             return remaining == 0;
         }
 
         denomination.withdrawMoney(takeCount);
-        boolean response = next.withdrawMoney(remaining);
+        boolean response = next.withdraw(remaining);
 
         if (!response) {
             denomination.addMoney(takeCount);
@@ -109,4 +150,87 @@ public class DenominationChainService {
         return true;
     }
 
+    public int size() {
+        if (next == null) {
+            return 1;
+        }
+
+        return 1 + next.size();
+    }
+
+    public void collect(int[] values, int[] counts) {
+        collect(values, counts, 0);
+    }
+
+    void collect(int[] values, int[] counts, int index) {
+        values[index] = denomination.getValue();
+        counts[index] = denomination.getCount();
+
+        if (next != null) {
+            next.collect(values, counts, index + 1);
+        }
+    }
+
+    public void withdrawCounts(int[] take) {
+        withdrawCounts(take, 0);
+    }
+
+    void withdrawCounts(int[] take, int index) {
+        if (take[index] > 0) {
+            denomination.withdrawMoney(take[index]);
+        }
+
+        if (next != null) {
+            next.withdrawCounts(take, index + 1);
+        }
+    }
+
+    public void collectCapacities(int[] capacities) {
+        collectCapacities(capacities, 0);
+    }
+
+    void collectCapacities(int[] capacities, int index) {
+        capacities[index] = denomination.getCapacity();
+
+        if (next != null) {
+            next.collectCapacities(capacities, index + 1);
+        }
+    }
+
+    // The vault step of a sale: coins stored and coins paid back as change
+    public void adjustCounts(int[] deposit, int[] withdraw) {
+        if (!VAULT_EVENTS.isEnabled()) {
+            adjustCounts(deposit, withdraw, 0);
+            return;
+        }
+        VaultOperationEvent event = new VaultOperationEvent();
+        event.begin();
+        adjustCounts(deposit, withdraw, 0);
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = "adjust";
+            DenominationChainService node = this;
+            for (int i = 0; node != null; i++, node = node.next) {
+                long value = node.denomination.getValue();
+                event.amount += (deposit[i] - withdraw[i]) * value;
+                event.coins += deposit[i] + withdraw[i];
+            }
+            event.succeeded = true;
+            event.commit();
+        }
+    }
+
+    void adjustCounts(int[] deposit, int[] withdraw, int index) {
+        if (deposit[index] > 0) {
+            denomination.addMoney(deposit[index]);
+        }
+        if (withdraw[index] > 0) {
+            denomination.withdrawMoney(withdraw[index]);
+        }
+
+        if (next != null) {
+            next.adjustCounts(deposit, withdraw, index + 1);
+        }
+    }
+
 }
@@ -1,43 +1,312 @@
 package services;
 
-import java.util.Map;
+import models.IntIntMap;
+import models.Money;
 
+// Amounts are in minor units (see Money). Change is computed in multiples of the greatest common divisor of
+// the coin values, so a vault of whole-currency coins keeps tables as small as it had before cents existed.
 public class DenominationService {
-    DenominationChainService chain;
+    private static final long DEFAULT_MAX_PAYABLE_AMOUNT = Money.ofMajor(100);
 
-    public DenominationService(DenominationChainService chain) {
-        this.chain = chain;
+    DenominationVault vault;
+    ChangeEngine changeEngine;
+    PayableAmounts payableAmounts;
+
+    // Scratch buffers reused by every change computation, one slot per vault denomination
+    int[] values;
+    int[] unitValues;
+    int[] counts;
+    int[] capacities;
+    int[] previousCounts;
+    int[] take;
+
+    // Greatest common divisor of the coin values, the step every payable amount is a multiple of
+    int unit;
+
+    // Bumped on every change to the vault, lets commit detect plans computed against an older state
+    long version;
+
+    MachineMetrics metrics;
+
+    public DenominationService(DenominationVault vault) {
+        this(vault, new BoundedChangeEngine());
     }
 
-    public void withdrawMoney(int amount) {
-        if (chain.canWithdrawMoney(amount)) {
-            chain.withdrawMoney(amount);
+    public DenominationService(DenominationVault vault, ChangeEngine changeEngine) {
+        this(vault, changeEngine, DEFAULT_MAX_PAYABLE_AMOUNT);
+    }
+
+    public DenominationService(DenominationVault vault, ChangeEngine changeEngine, long maxPayableAmount) {
+        this.vault = vault;
+        this.changeEngine = changeEngine;
+
+        int size = vault.size();
+        this.values = new int[size];
+        this.unitValues = new int[size];
+        this.counts = new int[size];
+        this.capacities = new int[size];
+        this.previousCounts = new int[size];
+        this.take = new int[size];
+        vault.collectCapacities(capacities);
+
+        vault.collect(values, counts);
+        this.unit = 0;
+        for (int value : values) {
+            unit = gcd(unit, value);
+        }
+        if (unit <= 0) {
+            unit = 1;
+        }
+        for (int i = 0; i < size; i++) {
+            unitValues[i] = values[i] / unit;
+        }
+
+        this.payableAmounts = new PayableAmounts((int) Math.min(maxPayableAmount / unit, Integer.MAX_VALUE - 1));
+        refreshPayableAmounts();
+    }
+
+    public synchronized void withdrawMoney(long amount) {
+        if (planChange(amount)) {
+            applyChange();
         }else{
-            System.out.println("Money cannot be withdrawn");
+            EventLog.log(EventLog.WITHDRAW_REFUSED, amount, 0);
         }
     }
 
-    public void addMoney(Map<Integer, Integer> money) {
-        if (chain.canAddMoney(money)) {
-            chain.addMoney(money);
+    public synchronized void addMoney(IntIntMap money) {
+        if (vault.canAddMoney(money)) {
+            vault.collect(values, previousCounts);
+            vault.addMoney(money);
+            vault.collect(values, counts);
+            for (int i = 0; i < values.length; i++) {
+                payableAmounts.updateCount(unitValues[i], previousCounts[i], counts[i]);
+            }
+            version++;
         }else{
-            System.out.println("Money cannot be added");
+            EventLog.log(EventLog.DEPOSIT_REFUSED, money.size(), 0);
         }
     }
 
-    public void giveChange(int amount) {
-        if (chain.canWithdrawMoney(amount)) {
-            chain.withdrawMoney(amount);
+    public synchronized void giveChange(long amount) {
+        if (planChange(amount)) {
+            applyChange();
         }else{
-            System.out.println("Money cannot be given");
+            EventLog.log(EventLog.CHANGE_REFUSED, amount, 0);
+        }
+    }
+
+    // Single bit lookup for amounts inside the tracked range, the change engine decides the rest
+    public synchronized boolean canWithdrawMoney(long amount) {
+        int units = toUnits(amount);
+        if (units < 0) {
+            return false;
+        }
+        if (payableAmounts.canPay(units)) {
+            return true;
         }
+        return planChange(amount);
     }
 
-    public boolean canWithdrawMoney(int amount) {
-        return chain.canWithdrawMoney(amount);
+    public synchronized boolean canAddMoney(IntIntMap money) {
+        return vault.canAddMoney(money);
     }
 
-    public boolean canAddMoney(Map<Integer, Integer> money) {
-        return chain.canAddMoney(money);
+    // True when count coins of this value fit in the vault next to the coins it holds now
+    public synchronized boolean canAcceptCoins(int value, int count) {
+        int index = indexOf(values, value);
+        if (index < 0 || count < 0) {
+            return false;
+        }
+        vault.collect(values, counts);
+        return (long) counts[index] + count <= capacities[index];
+    }
+
+    // True when some change amount up to maxChange cannot be paid right now
+    public synchronized boolean isExactChangeOnly(long maxChange) {
+        return (long) payableAmounts.firstUnpayable() * unit <= maxChange;
+    }
+
+    public ChangePlan newChangePlan() {
+        return new ChangePlan(values.length);
+    }
+
+    public void setMetrics(MachineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Works out in one vault pass which inserted coins are stored and which coins are paid back as change.
+    // Nothing is modified.
+    public synchronized boolean planTransaction(IntIntMap money, long change, ChangePlan plan) {
+        if (metrics == null) {
+            return computePlan(money, change, plan);
+        }
+        long start = System.nanoTime();
+        boolean feasible = computePlan(money, change, plan);
+        metrics.record(MachineMetrics.Operation.VAULT_PLAN, System.nanoTime() - start);
+        return feasible;
+    }
+
+    private boolean computePlan(IntIntMap money, long change, ChangePlan plan) {
+        plan.owner = this;
+        plan.change = change;
+        plan.vaultVersion = version;
+        plan.feasible = false;
+
+        vault.collect(plan.values, counts);
+        int[] accept = plan.accept;
+        for (int i = 0; i < accept.length; i++) {
+            accept[i] = 0;
+        }
+
+        int changeUnits = toUnits(change);
+        if (changeUnits < 0) {
+            return false;
+        }
+
+        for (int slot = money.firstSlot(); slot >= 0; slot = money.nextSlot(slot)) {
+            int index = indexOf(plan.values, money.keyAt(slot));
+            if (index < 0) {
+                return false;
+            }
+            accept[index] += money.valueAt(slot);
+        }
+
+        int[] resultingCounts = plan.resultingCounts;
+        for (int i = 0; i < accept.length; i++) {
+            long stored = (long) counts[i] + accept[i];
+            if (stored > capacities[i]) {
+                return false;
+            }
+            resultingCounts[i] = (int) stored;
+        }
+
+        // Change can come from the inserted coins too, they are in the vault by the time it is paid out
+        if (!changeEngine.makeChange(changeUnits, unitValues, resultingCounts, resultingCounts.length, plan.take)) {
+            return false;
+        }
+
+        for (int i = 0; i < resultingCounts.length; i++) {
+            resultingCounts[i] -= plan.take[i];
+        }
+
+        plan.feasible = true;
+        return true;
+    }
+
+    // Applies a feasible plan atomically. Returns false, leaving the vault untouched, if the vault changed
+    // after the plan was computed.
+    public synchronized boolean commit(ChangePlan plan) {
+        if (!plan.feasible || plan.owner != this || plan.vaultVersion != version) {
+            return false;
+        }
+
+        long start = metrics == null ? 0 : System.nanoTime();
+        vault.adjustCounts(plan.accept, plan.take);
+        for (int i = 0; i < plan.values.length; i++) {
+            int previousCount = plan.resultingCounts[i] - plan.accept[i] + plan.take[i];
+            payableAmounts.updateCount(unitValues[i], previousCount, plan.resultingCounts[i]);
+        }
+        version++;
+        plan.discard();
+        if (metrics != null) {
+            metrics.record(MachineMetrics.Operation.VAULT_COMMIT, System.nanoTime() - start);
+        }
+        return true;
+    }
+
+    // Current count of every coin value, keyed by value
+    public synchronized void collectCounts(IntIntMap into) {
+        vault.collect(values, counts);
+        for (int i = 0; i < values.length; i++) {
+            into.put(values[i], counts[i]);
+        }
+    }
+
+    // Sets the vault to the given counts, values missing from the map keep their count. Used by journal recovery.
+    public synchronized void restoreCounts(IntIntMap restored) {
+        vault.collect(values, counts);
+        int[] deposit = new int[values.length];
+        int[] withdraw = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            int target = restored.getOrDefault(values[i], counts[i]);
+            if (target < 0 || target > capacities[i]) {
+                throw new IllegalArgumentException("Restored coin count is out of range");
+            }
+            if (target > counts[i]) {
+                deposit[i] = target - counts[i];
+            } else {
+                withdraw[i] = counts[i] - target;
+            }
+        }
+
+        vault.adjustCounts(deposit, withdraw);
+        refreshPayableAmounts();
+        version++;
+    }
+
+    public DenominationVault getVault() {
+        return vault;
+    }
+
+    public PayableAmounts getPayableAmounts() {
+        return payableAmounts;
+    }
+
+    // Rebuilds the bitset from the vault, needed only if denominations were changed behind this service
+    public synchronized void refreshPayableAmounts() {
+        payableAmounts.clear();
+        vault.collect(values, counts);
+        for (int i = 0; i < values.length; i++) {
+            payableAmounts.updateCount(unitValues[i], 0, counts[i]);
+        }
+    }
+
+    public int getUnit() {
+        return unit;
+    }
+
+    private boolean planChange(long amount) {
+        int units = toUnits(amount);
+        if (units < 0) {
+            return false;
+        }
+        vault.collect(values, counts);
+        return changeEngine.makeChange(units, unitValues, counts, values.length, take);
+    }
+
+    // Amount expressed in vault units, -1 when it is negative, not a multiple of the unit or too large
+    private int toUnits(long amount) {
+        if (amount < 0 || amount % unit != 0 || amount / unit > Integer.MAX_VALUE) {
+            return -1;
+        }
+        return (int) (amount / unit);
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private void applyChange() {
+        vault.withdrawCounts(take);
+        for (int i = 0; i < values.length; i++) {
+            if (take[i] > 0) {
+                payableAmounts.updateCount(unitValues[i], counts[i], counts[i] - take[i]);
+            }
+        }
+        version++;
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
     }
 }
@@ -0,0 +1,26 @@
+package services;
+
+import models.IntIntMap;
+
+public interface DenominationVault {
+    boolean canAddMoney(IntIntMap money);
+
+    boolean addMoney(IntIntMap money);
+
+    boolean canWithdrawMoney(long amount);
+
+    boolean withdrawMoney(long amount);
+
+    int size();
+
+    // Copies every denomination value and coin count, in vault order, into the given arrays
+    void collect(int[] values, int[] counts);
+
+    void collectCapacities(int[] capacities);
+
+    // Withdraws take[i] coins from the denomination at position i of collect()
+    void withdrawCounts(int[] take);
+
+    // Deposits deposit[i] and withdraws withdraw[i] coins at position i of collect() in one pass
+    void adjustCounts(int[] deposit, int[] withdraw);
+}
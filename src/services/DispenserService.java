@@ -1,35 +1,51 @@
 package services;
 
-import java.util.Map;
-
-import models.Dispenser;
+import models.CatalogSnapshot;
+import models.IntIntMap;
 import models.Product;
+import models.ProductDispenser;
 
 public class DispenserService {
-    Dispenser dispenser;
-    public DispenserService(Dispenser dispenser) {
+    ProductDispenser dispenser;
+    MachineMetrics metrics;
+
+    public DispenserService(ProductDispenser dispenser) {
         this.dispenser = dispenser;
     }
 
+    public void setMetrics(MachineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     public void dispenseProduct(int id, int quantity) {
-        if(!dispenser.isProductAvailable(id)) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        if(!dispenser.tryDispenseProduct(id, quantity)) {
             throw new IllegalArgumentException("Product is not available");
         }
-
-        if(quantity > dispenser.getProduct(id).getQuantity()) {
-            throw new IllegalArgumentException("Product is not available");
+        if (metrics != null) {
+            metrics.record(MachineMetrics.Operation.DISPENSE, System.nanoTime() - start);
         }
+    }
 
-        dispenser.dispenseProduct(id, quantity);
+    // Takes the stock of a whole sale, timed as a dispense since this is where the units leave the slots
+    public boolean reserveProducts(IntIntMap products) {
+        if (metrics == null) {
+            return dispenser.reserveProducts(products);
+        }
+        long start = System.nanoTime();
+        boolean reserved = dispenser.reserveProducts(products);
+        metrics.record(MachineMetrics.Operation.DISPENSE, System.nanoTime() - start);
+        return reserved;
     }
 
-    public boolean canDispenseProducts(Map<Integer, Integer> products){
-        for(Integer productId : products.keySet()){
-            if(!dispenser.isProductAvailable(productId)) {
-                return false;
-            }
+    public void releaseProducts(IntIntMap products) {
+        dispenser.releaseProducts(products);
+    }
 
-            if(products.get(productId) > dispenser.getProduct(productId).getQuantity()) {
+    public boolean canDispenseProducts(IntIntMap products){
+        for(int slot = products.firstSlot(); slot >= 0; slot = products.nextSlot(slot)){
+            int quantity = products.valueAt(slot);
+            if(quantity <= 0 || !dispenser.canDispenseProduct(products.keyAt(slot), quantity)) {
                 return false;
             }
         }
@@ -40,6 +56,16 @@ public class DispenserService {
         return dispenser.getProduct(id);
     }
 
+    // Price in minor units, -1 if the product is not in the dispenser. Unlike getProduct it allocates nothing.
+    public long getPrice(int id) {
+        return dispenser.getPrice(id);
+    }
+
+    public int getQuantity(int id) {
+        return dispenser.getQuantity(id);
+    }
+
+    // price in major units, e.g. 12.50
     public void addProduct(int id, String name, double price, int quantity, int capacity) {
         Product product = new Product(id, name, price, quantity, capacity);
         dispenser.addProduct(product);
@@ -63,7 +89,37 @@ public class DispenserService {
             throw new IllegalArgumentException("Product is not available");
         }
 
-        dispenser.getProduct(id).updateQuantity(quantity);
+        dispenser.updateQuantity(id, quantity);
+    }
+
+    // Refills a slot, unlike updateProductQuantity also one that is sold out
+    public void restockProduct(int id, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be greater than 0");
+        }
+        dispenser.updateQuantity(id, quantity);
+    }
+
+    // Current quantity of every product, keyed by product id
+    public void collectQuantities(IntIntMap into) {
+        for (Product product : dispenser.getProducts()) {
+            into.put(product.getId(), product.getQuantity());
+        }
+    }
+
+    // Sets the given products to the given quantities. Used by journal recovery.
+    public void restoreQuantities(IntIntMap quantities) {
+        for (int slot = quantities.firstSlot(); slot >= 0; slot = quantities.nextSlot(slot)) {
+            Product product = dispenser.getProduct(quantities.keyAt(slot));
+            if (product == null) {
+                throw new IllegalArgumentException("Product not found");
+            }
+            dispenser.updateQuantity(product.getId(), quantities.valueAt(slot) - product.getQuantity());
+        }
+    }
+
+    public CatalogSnapshot getCatalog() {
+        return dispenser.snapshot();
     }
 
     public void showProducts() {
@@ -0,0 +1,323 @@
+package services;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import models.Money;
+
+// Machine events on a preallocated ring instead of synchronous console output. An event is four longs
+// (timestamp, type, two arguments) written straight into the ring, so logging never allocates, never takes the
+// stdout lock and never waits: when the consumer has fallen a full ring behind the event is dropped and counted.
+// One consumer thread drains the ring in order and hands each event to a sink, which formats it to the console or
+// appends the raw record to a file. An event the sink throws on is counted and reported to the failure handler,
+// by default the uncaught-exception handler of the draining thread, and draining carries on with the next one.
+//
+// A slot is claimed with a compare-and-set on the head so services shared by several threads can log too; with
+// one thread per machine, the usual setup, the claim is never contended.
+public class EventLog {
+    // Event types with their two arguments, amounts in minor units
+    public static final int SALE_COMPLETED = 1; // price, change
+    public static final int WITHDRAW_REFUSED = 2; // amount
+    public static final int DEPOSIT_REFUSED = 3; // coin values offered
+    public static final int CHANGE_REFUSED = 4; // amount
+    public static final int PRODUCT_UNAVAILABLE = 5; // product id, quantity
+    public static final int COIN_REJECTED = 6; // coin value
+    public static final int AMOUNT_DUE = 7; // amount
+    public static final int CHANGE_UNAVAILABLE = 8; // change
+    public static final int SESSION_TIMED_OUT = 9; // refunded amount, refunded coins
+
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final long IDLE_PARK_NANOS = 1_000_000L;
+    private static final VarHandle PUBLISHED = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private static volatile EventLog shared;
+
+    final int mask;
+    // timestamp, type, a, b per slot
+    final long[] events;
+    // Sequence + 1 of the event last published in each slot
+    final long[] published;
+    final AtomicLong head = new AtomicLong();
+    final AtomicLong dropped = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    volatile long tail;
+    volatile Thread.UncaughtExceptionHandler failureHandler;
+
+    Sink sink;
+    Thread consumer;
+    // Drains at exit while the log runs, removed again by stop
+    Thread shutdownHook;
+    volatile boolean running;
+    boolean stopped;
+    // Set once the sink is closed, later drains leave it alone
+    volatile boolean closed;
+
+    public EventLog(int capacity, Sink sink) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of 2");
+        }
+        this.mask = capacity - 1;
+        this.events = new long[capacity * 4];
+        this.published = new long[capacity];
+        this.sink = sink;
+    }
+
+    // Log used by the machine services, printing to the console until replaced
+    public static EventLog shared() {
+        EventLog log = shared;
+        if (log == null) {
+            synchronized (EventLog.class) {
+                log = shared;
+                if (log == null) {
+                    log = new EventLog(DEFAULT_CAPACITY, EventLog::print);
+                    log.start();
+                    shared = log;
+                }
+            }
+        }
+        return log;
+    }
+
+    // Swaps the shared log, e.g. for one writing to a file. Events still in the previous log are drained first.
+    public static void setShared(EventLog log) {
+        synchronized (EventLog.class) {
+            EventLog previous = shared;
+            shared = log;
+            if (previous != null) {
+                previous.stop();
+            }
+        }
+    }
+
+    public static void log(int type, long a, long b) {
+        shared().publish(type, a, b);
+    }
+
+    // Receives the exceptions thrown by the sink, with the thread that drained the event
+    public void setFailureHandler(Thread.UncaughtExceptionHandler failureHandler) {
+        this.failureHandler = failureHandler;
+    }
+
+    // Returns false if the ring was full and the event was dropped
+    public boolean publish(int type, long a, long b) {
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail > mask) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) sequence & mask;
+        int base = slot << 2;
+        events[base] = System.nanoTime();
+        events[base + 1] = type;
+        events[base + 2] = a;
+        events[base + 3] = b;
+        PUBLISHED.setRelease(published, slot, sequence + 1);
+        return true;
+    }
+
+    // Hands every published event to the sink and returns how many there were. Called by the consumer thread, or
+    // directly for a log that was never started.
+    public synchronized int drain() {
+        if (closed) {
+            return 0;
+        }
+        long next = tail;
+        int drained = 0;
+        while (true) {
+            int slot = (int) next & mask;
+            if ((long) PUBLISHED.getAcquire(published, slot) != next + 1) {
+                break;
+            }
+            int base = slot << 2;
+            try {
+                sink.accept(events[base], (int) events[base + 1], events[base + 2], events[base + 3]);
+            } catch (RuntimeException e) {
+                failed(e);
+            }
+            next++;
+            tail = next;
+            drained++;
+        }
+        if (drained > 0) {
+            try {
+                sink.endOfBatch();
+            } catch (RuntimeException e) {
+                failed(e);
+            }
+        }
+        return drained;
+    }
+
+    private void failed(RuntimeException e) {
+        failed.incrementAndGet();
+        Thread thread = Thread.currentThread();
+        Thread.UncaughtExceptionHandler handler = failureHandler;
+        (handler != null ? handler : thread.getUncaughtExceptionHandler()).uncaughtException(thread, e);
+    }
+
+    // Blocks until everything published before the call reached the sink, or the log was stopped
+    public void flush() {
+        long target = head.get();
+        while (tail < target && !closed) {
+            if (drain() == 0) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    public synchronized void start() {
+        if (running || stopped) {
+            return;
+        }
+        running = true;
+        consumer = new Thread(() -> {
+            while (running) {
+                if (drain() == 0) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+            drain();
+        }, "event-log");
+        consumer.setDaemon(true);
+        consumer.start();
+        // The consumer is a daemon, events logged right before exit would be lost without this
+        shutdownHook = new Thread(this::drain, "event-log-flush");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    // Drains what is left and closes the sink, the log cannot be started again
+    public void stop() {
+        Thread thread;
+        Thread hook;
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            running = false;
+            thread = consumer;
+            consumer = null;
+            hook = shutdownHook;
+            shutdownHook = null;
+        }
+        if (hook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException e) {
+                // Already exiting, the hook finds the sink closed once the drain below is done
+            }
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            drain();
+            closed = true;
+            sink.close();
+        }
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    // Events the sink threw on, together with failed end-of-batch flushes
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public static String format(int type, long a, long b) {
+        switch (type) {
+            case SALE_COMPLETED:
+                return "Transaction completed successfully have a nice day";
+            case WITHDRAW_REFUSED:
+                return "Money cannot be withdrawn";
+            case DEPOSIT_REFUSED:
+                return "Money cannot be added";
+            case CHANGE_REFUSED:
+                return "Money cannot be given";
+            case PRODUCT_UNAVAILABLE:
+                return "Product is not available";
+            case COIN_REJECTED:
+                return "Coin rejected, returning " + Money.format(a);
+            case AMOUNT_DUE:
+                return "Amount due: " + Money.format(a);
+            case CHANGE_UNAVAILABLE:
+                return "Change cannot be given, insert the exact amount or cancel";
+            case SESSION_TIMED_OUT:
+                return "Session timed out, returning " + b + " coins worth " + Money.format(a);
+            default:
+                return "Unknown event " + type;
+        }
+    }
+
+    // Console sink, prints the same messages the services used to print themselves
+    public static void print(long timestamp, int type, long a, long b) {
+        System.out.println(format(type, a, b));
+    }
+
+    // Appends every event as a raw 28-byte record: long timestamp, int type, long a, long b
+    public static Sink fileSink(Path path) {
+        DataOutputStream out;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Event log cannot be opened", e);
+        }
+        return new Sink() {
+            public void accept(long timestamp, int type, long a, long b) {
+                try {
+                    out.writeLong(timestamp);
+                    out.writeInt(type);
+                    out.writeLong(a);
+                    out.writeLong(b);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Event log cannot be written", e);
+                }
+            }
+
+            public void endOfBatch() {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Event log cannot be written", e);
+                }
+            }
+
+            public void close() {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Event log cannot be closed", e);
+                }
+            }
+        };
+    }
+
+    public interface Sink {
+        void accept(long timestamp, int type, long a, long b);
+
+        default void endOfBatch() {
+        }
+
+        default void close() {
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package services;
+
+public class GreedyChangeEngine implements ChangeEngine {
+
+    public boolean makeChange(int amount, int[] values, int[] counts, int size, int[] take) {
+        if (amount < 0) {
+            return false;
+        }
+
+        int remaining = amount;
+        for (int i = 0; i < size; i++) {
+            int takeCount = Math.min(remaining / values[i], counts[i]);
+            take[i] = takeCount;
+            remaining -= takeCount * values[i];
+        }
+
+        return remaining == 0;
+    }
+}
@@ -0,0 +1,112 @@
+package services;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import states.Outcome;
+
+// Latency histograms per machine operation and counters of rejected operations by reason, in fixed memory.
+// Recording is wait-free and allocation-free, so it can stay on in production. One instance can be shared by a
+// whole fleet to get fleet-wide figures; operators and the fleet simulator poll it with snapshot or
+// snapshotAndReset.
+public class MachineMetrics {
+    public enum Operation {
+        SELECT_PRODUCT,
+        INSERT_MONEY,
+        PROCESS_TRANSACTION,
+        // Vault phases of a sale, timed while the vault lock is held
+        VAULT_PLAN,
+        VAULT_COMMIT,
+        // Stock leaving the dispenser: a single dispense, or the stock taken for a whole sale
+        DISPENSE
+    }
+
+    static final Operation[] OPERATIONS = Operation.values();
+    static final Outcome[] OUTCOMES = Outcome.values();
+
+    final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+    final AtomicLongArray rejects = new AtomicLongArray(OUTCOMES.length);
+
+    public MachineMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(Operation operation, long nanos) {
+        latencies[operation.ordinal()].record(nanos);
+    }
+
+    public void recordReject(Outcome reason) {
+        rejects.incrementAndGet(reason.ordinal());
+    }
+
+    // Copy of everything recorded so far
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        for (int i = 0; i < latencies.length; i++) {
+            snapshot.latencies[i].add(latencies[i]);
+        }
+        for (int i = 0; i < OUTCOMES.length; i++) {
+            snapshot.rejects[i] = rejects.get(i);
+        }
+        return snapshot;
+    }
+
+    // Everything recorded since the previous call, for interval reporting. Nothing recorded meanwhile is lost.
+    public Snapshot snapshotAndReset() {
+        Snapshot snapshot = new Snapshot();
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i].drainTo(snapshot.latencies[i]);
+        }
+        for (int i = 0; i < OUTCOMES.length; i++) {
+            snapshot.rejects[i] = rejects.getAndSet(i, 0);
+        }
+        return snapshot;
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : latencies) {
+            histogram.reset();
+        }
+        for (int i = 0; i < OUTCOMES.length; i++) {
+            rejects.set(i, 0);
+        }
+    }
+
+    public static class Snapshot {
+        final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+        final long[] rejects = new long[OUTCOMES.length];
+
+        public Snapshot() {
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyHistogram();
+            }
+        }
+
+        public LatencyHistogram getLatency(Operation operation) {
+            return latencies[operation.ordinal()];
+        }
+
+        public long getRejects(Outcome reason) {
+            return rejects[reason.ordinal()];
+        }
+
+        public long getTotalRejects() {
+            long total = 0;
+            for (long count : rejects) {
+                total += count;
+            }
+            return total;
+        }
+
+        // Adds another snapshot, e.g. to sum the machines of a fleet that each have their own metrics
+        public void add(Snapshot other) {
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i].add(other.latencies[i]);
+            }
+            for (int i = 0; i < rejects.length; i++) {
+                rejects[i] += other.rejects[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package services;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import models.CatalogSnapshot;
+import models.Denomination;
+import models.Dispenser;
+import models.IntIntMap;
+import models.Product;
+import models.ProductView;
+
+// Versioned binary image of a whole machine: catalog with quantities, vault, state, cart and inserted money.
+// Layout (big endian):
+//   int magic, short version, int machine id, long journal sequence, byte state, byte vault kind
+//   int products, then per product: int id, long price, int quantity, int capacity, short name length, name
+//   int denominations, then per denomination: int value, int count, int capacity
+//   int cart lines, then int id, int quantity pairs
+//   int money lines (-1 when no money was inserted), then int value, int count pairs
+//   int crc32 of everything before it
+// The file is written to a temporary sibling and moved into place, so a crash never leaves a half-written
+// snapshot behind.
+public class MachineSnapshot {
+    public static final byte IDLE = 0;
+    public static final byte INSERT_MONEY = 1;
+    public static final byte PROCESS_TRANSACTION = 2;
+    public static final byte MAINTENANCE = 3;
+    public static final byte OUT_OF_SERVICE = 4;
+
+    static final int MAGIC = 0x564D534E;
+    static final short VERSION = 1;
+
+    static final byte CHAIN_VAULT = 0;
+    static final byte ARRAY_VAULT = 1;
+
+    int machineId;
+    long journalSequence;
+    byte state;
+    Dispenser dispenser;
+    DenominationVault vault;
+    IntIntMap cart;
+    IntIntMap money;
+
+    MachineSnapshot() {
+    }
+
+    public static void write(Path path, int machineId, byte state, long journalSequence,
+            DispenserService dispenserService, DenominationService denominationService, IntIntMap cart,
+            IntIntMap money) {
+        // Taken from the published catalog, so sales running meanwhile neither block nor tear the copy
+        CatalogSnapshot catalog = dispenserService.getCatalog();
+        int productCount = catalog.size();
+        byte[][] names = new byte[productCount][];
+        int size = 4 + 2 + 4 + 8 + 1 + 1 + 4;
+        int index = 0;
+        for (int slot = 0; slot < catalog.slotCount(); slot++) {
+            ProductView product = catalog.slot(slot);
+            if (product == null) {
+                continue;
+            }
+            names[index] = product.getName().getBytes(StandardCharsets.UTF_8);
+            if (names[index].length > 0xFFFF) {
+                throw new IllegalArgumentException("Product name is too long");
+            }
+            size += 4 + 8 + 4 + 4 + 2 + names[index].length;
+            index++;
+        }
+
+        int[] values;
+        int[] counts;
+        int[] capacities;
+        byte vaultKind;
+        synchronized (denominationService) {
+            DenominationVault vault = denominationService.vault;
+            values = new int[vault.size()];
+            counts = new int[values.length];
+            capacities = new int[values.length];
+            vault.collect(values, counts);
+            vault.collectCapacities(capacities);
+            vaultKind = vault instanceof DenominationArrayService ? ARRAY_VAULT : CHAIN_VAULT;
+        }
+        size += 4 + values.length * 12;
+        size += 4 + cart.size() * 8;
+        size += 4 + (money == null ? 0 : money.size() * 8);
+        size += 4;
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.putInt(MAGIC);
+            out.putShort(VERSION);
+            out.putInt(machineId);
+            out.putLong(journalSequence);
+            out.put(state);
+            out.put(vaultKind);
+
+            out.putInt(productCount);
+            index = 0;
+            for (int slot = 0; slot < catalog.slotCount(); slot++) {
+                ProductView product = catalog.slot(slot);
+                if (product == null) {
+                    continue;
+                }
+                out.putInt(product.getId());
+                out.putLong(product.getPrice());
+                out.putInt(product.getQuantity());
+                out.putInt(product.getCapacity());
+                out.putShort((short) names[index].length);
+                out.put(names[index]);
+                index++;
+            }
+
+            out.putInt(values.length);
+            for (int i = 0; i < values.length; i++) {
+                out.putInt(values[i]);
+                out.putInt(counts[i]);
+                out.putInt(capacities[i]);
+            }
+
+            putPairs(out, cart);
+            if (money == null) {
+                out.putInt(-1);
+            } else {
+                putPairs(out, money);
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(out.duplicate().flip());
+            out.putInt((int) crc.getValue());
+            out.force();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Snapshot cannot be written", e);
+        }
+
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Snapshot cannot be moved into place", e);
+        }
+    }
+
+    // Decodes straight from the mapped file, the file is never copied into a heap buffer first
+    public static MachineSnapshot read(Path path) {
+        MappedByteBuffer in;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Snapshot cannot be read", e);
+        }
+
+        if (in.limit() < 4 + 2 + 4 || in.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a machine snapshot");
+        }
+        if (in.getShort(4) != VERSION) {
+            throw new IllegalArgumentException("Unsupported snapshot version " + in.getShort(4));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(in.duplicate().limit(in.limit() - 4));
+        if ((int) crc.getValue() != in.getInt(in.limit() - 4)) {
+            throw new IllegalArgumentException("Snapshot is corrupt");
+        }
+
+        MachineSnapshot snapshot = new MachineSnapshot();
+        in.position(6);
+        snapshot.machineId = in.getInt();
+        snapshot.journalSequence = in.getLong();
+        snapshot.state = in.get();
+        byte vaultKind = in.get();
+
+        int productCount = in.getInt();
+        Product[] products = new Product[productCount];
+        byte[] name = new byte[64];
+        for (int i = 0; i < productCount; i++) {
+            int id = in.getInt();
+            long price = in.getLong();
+            int quantity = in.getInt();
+            int capacity = in.getInt();
+            int nameLength = in.getShort() & 0xFFFF;
+            if (name.length < nameLength) {
+                name = new byte[nameLength];
+            }
+            in.get(name, 0, nameLength);
+            products[i] = Product.withMinorPrice(id, new String(name, 0, nameLength, StandardCharsets.UTF_8), price,
+                    quantity, capacity);
+        }
+        snapshot.dispenser = new Dispenser(snapshot.machineId);
+        snapshot.dispenser.addProducts(Arrays.asList(products));
+
+        int denominationCount = in.getInt();
+        Denomination[] denominations = new Denomination[denominationCount];
+        for (int i = 0; i < denominationCount; i++) {
+            int value = in.getInt();
+            int count = in.getInt();
+            int capacity = in.getInt();
+            denominations[i] = new Denomination(i + 1, value, capacity);
+            denominations[i].addMoney(count);
+        }
+        snapshot.vault = vaultKind == ARRAY_VAULT ? new DenominationArrayService(denominations)
+                : chain(denominations);
+
+        snapshot.cart = getPairs(in, in.getInt());
+        int moneyLines = in.getInt();
+        snapshot.money = moneyLines < 0 ? null : getPairs(in, moneyLines);
+        return snapshot;
+    }
+
+    public int getMachineId() {
+        return machineId;
+    }
+
+    public long getJournalSequence() {
+        return journalSequence;
+    }
+
+    public byte getState() {
+        return state;
+    }
+
+    public Dispenser getDispenser() {
+        return dispenser;
+    }
+
+    public DenominationVault getVault() {
+        return vault;
+    }
+
+    public IntIntMap getCart() {
+        return cart;
+    }
+
+    public IntIntMap getMoney() {
+        return money;
+    }
+
+    private static DenominationChainService chain(Denomination[] denominations) {
+        if (denominations.length == 0) {
+            throw new IllegalArgumentException("Snapshot has no denominations");
+        }
+        DenominationChainService head = new DenominationChainService(denominations[0]);
+        DenominationChainService tail = head;
+        for (int i = 1; i < denominations.length; i++) {
+            DenominationChainService next = new DenominationChainService(denominations[i]);
+            tail.setNext(next);
+            tail = next;
+        }
+        return head;
+    }
+
+    private static void putPairs(ByteBuffer out, IntIntMap pairs) {
+        out.putInt(pairs.size());
+        for (int slot = pairs.firstSlot(); slot >= 0; slot = pairs.nextSlot(slot)) {
+            out.putInt(pairs.keyAt(slot));
+            out.putInt(pairs.valueAt(slot));
+        }
+    }
+
+    private static IntIntMap getPairs(ByteBuffer in, int lines) {
+        IntIntMap pairs = new IntIntMap(lines);
+        for (int i = 0; i < lines; i++) {
+            pairs.put(in.getInt(), in.getInt());
+        }
+        return pairs;
+    }
+}
@@ -0,0 +1,102 @@
+package services;
+
+import java.util.Arrays;
+
+// Bitset of every change amount in [0, maxAmount] the vault can currently pay.
+//
+// Next to the bits it keeps ways[s], the number of coin multisets that sum to s, as the coefficients of
+// prod_v (1 + x^v + ... + x^(v * count_v)) = prod_v (1 - x^(v * (count_v + 1))) / (1 - x^v).
+// Changing one count from c to c' only multiplies that product by (1 - x^(v * (c' + 1))) / (1 - x^(v * (c + 1))),
+// so deposits and withdrawals are two O(maxAmount) passes instead of a recomputation.
+// The coefficients wrap modulo 2^64: a set bit is always payable, a clear bit is unpayable except in the
+// practically impossible case where the number of ways is an exact multiple of 2^64.
+public class PayableAmounts {
+    private final int maxAmount;
+    private final long[] ways;
+    private final long[] bits;
+
+    public PayableAmounts(int maxAmount) {
+        if (maxAmount < 0) {
+            throw new IllegalArgumentException("Max amount must not be negative");
+        }
+        this.maxAmount = maxAmount;
+        this.ways = new long[maxAmount + 1];
+        this.bits = new long[(maxAmount >> 6) + 1];
+        clear();
+    }
+
+    public int getMaxAmount() {
+        return maxAmount;
+    }
+
+    public void clear() {
+        Arrays.fill(ways, 0);
+        Arrays.fill(bits, 0);
+        ways[0] = 1;
+        bits[0] = 1;
+    }
+
+    public boolean covers(int amount) {
+        return amount >= 0 && amount <= maxAmount;
+    }
+
+    public boolean canPay(int amount) {
+        if (!covers(amount)) {
+            return false;
+        }
+        return (bits[amount >> 6] & (1L << amount)) != 0;
+    }
+
+    // Smallest amount the vault cannot pay, or maxAmount + 1 when everything in range is payable
+    public int firstUnpayable() {
+        for (int word = 0; word < bits.length; word++) {
+            long missing = ~bits[word];
+            if (missing != 0) {
+                int amount = (word << 6) + Long.numberOfTrailingZeros(missing);
+                return Math.min(amount, maxAmount + 1);
+            }
+        }
+        return maxAmount + 1;
+    }
+
+    public void updateCount(int value, int oldCount, int newCount) {
+        if (value <= 0 || oldCount == newCount) {
+            return;
+        }
+
+        long oldStep = (long) value * (oldCount + 1);
+        long newStep = (long) value * (newCount + 1);
+        int from = (int) Math.min(Math.min(oldStep, newStep), maxAmount + 1L);
+        if (from > maxAmount) {
+            return;
+        }
+
+        // Divide by (1 - x^oldStep)
+        if (oldStep <= maxAmount) {
+            int step = (int) oldStep;
+            for (int s = step; s <= maxAmount; s++) {
+                ways[s] += ways[s - step];
+            }
+        }
+
+        // Multiply by (1 - x^newStep)
+        if (newStep <= maxAmount) {
+            int step = (int) newStep;
+            for (int s = maxAmount; s >= step; s--) {
+                ways[s] -= ways[s - step];
+            }
+        }
+
+        refreshBits(from);
+    }
+
+    private void refreshBits(int from) {
+        for (int s = from; s <= maxAmount; s++) {
+            if (ways[s] != 0) {
+                bits[s >> 6] |= 1L << s;
+            } else {
+                bits[s >> 6] &= ~(1L << s);
+            }
+        }
+    }
+}
@@ -1,15 +1,23 @@
 package services;
 
-import java.util.*;
-
-import models.Dispenser;
+import models.IntIntMap;
+import models.IntLongMap;
+import models.Money;
+import models.ProductDispenser;
 
 public class SelectProductService {
-    public Map<Integer, Integer> selectedProducts; // product id and quantity
-    public Dispenser dispenser;
+    public IntIntMap selectedProducts; // product id and quantity
+    public ProductDispenser dispenser;
+    // Unit price of every cart line, fixed when the line is first selected, so removing the line takes off
+    // exactly what it added even if the product has left the dispenser meanwhile
+    final IntLongMap unitPrices = new IntLongMap();
+
+    // Kept up to date on every cart change so checkout never has to re-walk the cart
+    long totalPrice; // minor units
+    int itemCount;
 
-    public SelectProductService(Dispenser dispenser) {
-        this.selectedProducts = new HashMap<>();
+    public SelectProductService(ProductDispenser dispenser) {
+        this.selectedProducts = new IntIntMap();
         this.dispenser = dispenser;
     }
 
@@ -18,42 +26,76 @@ public class SelectProductService {
             throw new IllegalArgumentException("Quantity must be greater than 0");
         }
 
-        if (!dispenser.canDispenseProduct(productId, quantity)) {
+        if (!trySelectProduct(productId, quantity)) {
             throw new IllegalArgumentException("Product is not available");
         }
+    }
+
+    // False, with the cart left as it was, if the dispenser cannot supply the units
+    public boolean trySelectProduct(int productId, int quantity) {
+        if (!dispenser.canDispenseProduct(productId, quantity)) {
+            return false;
+        }
 
-        int currentQuantity = this.selectedProducts.getOrDefault(productId, 0);
-        this.selectedProducts.put(productId, currentQuantity + quantity);
+        this.selectedProducts.addTo(productId, quantity);
+        addToTotals(productId, quantity);
+        return true;
     }
 
     public void clear() {
         this.selectedProducts.clear();
+        this.unitPrices.clear();
+        this.totalPrice = 0;
+        this.itemCount = 0;
+    }
+
+    public long getTotalPrice() {
+        return totalPrice;
+    }
+
+    public int getItemCount() {
+        return itemCount;
     }
 
     public void update(int productId, int quantity) {
-        if (selectedProducts.get(productId) == null) {
-            System.out.print("Product is not available");
+        if (!selectedProducts.containsKey(productId)) {
+            EventLog.log(EventLog.PRODUCT_UNAVAILABLE, productId, quantity);
         }
         int newQuantity = selectedProducts.get(productId) + quantity;
         if (!dispenser.canDispenseProduct(productId, newQuantity)) {
-            System.out.println("Product is not available");
+            EventLog.log(EventLog.PRODUCT_UNAVAILABLE, productId, newQuantity);
         }
 
         this.selectedProducts.put(productId, newQuantity);
+        addToTotals(productId, quantity);
     }
 
     public void removeProduct(int productId) {
         if (!dispenser.isProductAvailable(productId)) {
-            System.out.println("Product is not available");
+            EventLog.log(EventLog.PRODUCT_UNAVAILABLE, productId, 0);
         }
 
-        this.selectedProducts.remove(productId);
+        int removedQuantity = this.selectedProducts.remove(productId);
+        if (removedQuantity != 0) {
+            addToTotals(productId, -removedQuantity);
+        }
+        this.unitPrices.remove(productId);
     }
 
     public void showSelectedProducts() {
-        for (Map.Entry<Integer, Integer> entry : selectedProducts.entrySet()) {
-            System.out.println("Product ID: " + entry.getKey() + ", Quantity: " + entry.getValue());
+        for (int slot = selectedProducts.firstSlot(); slot >= 0; slot = selectedProducts.nextSlot(slot)) {
+            System.out.println("Product ID: " + selectedProducts.keyAt(slot) + ", Quantity: " + selectedProducts.valueAt(slot));
+        }
+    }
+
+    private void addToTotals(int productId, int quantity) {
+        long unitPrice = unitPrices.getOrDefault(productId, -1);
+        if (unitPrice < 0) {
+            unitPrice = Math.max(0, dispenser.getPrice(productId));
+            unitPrices.put(productId, unitPrice);
         }
+        this.totalPrice = Money.add(totalPrice, Money.multiply(unitPrice, quantity));
+        this.itemCount += quantity;
     }
 
 }
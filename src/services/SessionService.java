@@ -0,0 +1,275 @@
+package services;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import models.IntIntMap;
+import models.Money;
+import models.ProductDispenser;
+
+// Concurrent cart sessions for machines with several screens. Selecting places a hold on the stock; holds are
+// given back when the session is closed, or reclaimed once it has been idle for the hold timeout.
+//
+// Every session has one timeout on a TimingWheel, moved forward on every activity, so an abandoned session is
+// reclaimed when its deadline passes even if no screen is used again. Moving a timeout is an O(1) cancel and
+// schedule, there is no thread per session and the open sessions are never scanned. A service driven by a manual
+// clock owns a wheel that no thread advances, every call reclaims what is due instead.
+public class SessionService {
+    private static final long DEFAULT_HOLD_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(2);
+    private static final long DEFAULT_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int TICKS_PER_TIMEOUT = 64;
+
+    // Expires the sessions of every service built with the default clock, started when the first one is used
+    private static volatile TimingWheel sharedExpiryWheel;
+
+    ProductDispenser dispenser;
+    DenominationService denominationService;
+    TransactionJournal journal;
+    long holdTimeoutNanos;
+    LongSupplier clock;
+    // Null until the first session is touched when the shared wheel is used
+    volatile TimingWheel expiryWheel;
+    // The wheel is advanced by the calls of this service rather than by a ticker thread
+    final boolean manualWheel;
+
+    ConcurrentHashMap<Integer, CartSession> sessions = new ConcurrentHashMap<>();
+    AtomicInteger nextId = new AtomicInteger();
+
+    public SessionService(DispenserService dispenserService, DenominationService denominationService) {
+        this(dispenserService, denominationService, DEFAULT_HOLD_TIMEOUT_NANOS, System::nanoTime, null, false);
+    }
+
+    // Expiries fire when a call of this service finds them due, for tests and simulations on a manual clock
+    public SessionService(DispenserService dispenserService, DenominationService denominationService,
+            long holdTimeoutNanos, LongSupplier clock) {
+        this(dispenserService, denominationService, holdTimeoutNanos, clock,
+                new TimingWheel(Math.max(1, holdTimeoutNanos / TICKS_PER_TIMEOUT), clock), true);
+    }
+
+    // Expiries fire on the given wheel's ticker thread, so the wheel must be started
+    public SessionService(DispenserService dispenserService, DenominationService denominationService,
+            long holdTimeoutNanos, TimingWheel expiryWheel) {
+        this(dispenserService, denominationService, holdTimeoutNanos, expiryWheel.clock, expiryWheel, false);
+    }
+
+    private SessionService(DispenserService dispenserService, DenominationService denominationService,
+            long holdTimeoutNanos, LongSupplier clock, TimingWheel expiryWheel, boolean manualWheel) {
+        if (holdTimeoutNanos <= 0) {
+            throw new IllegalArgumentException("Hold timeout must be greater than 0");
+        }
+        this.dispenser = dispenserService.dispenser;
+        this.denominationService = denominationService;
+        this.holdTimeoutNanos = holdTimeoutNanos;
+        this.clock = clock;
+        this.expiryWheel = expiryWheel;
+        this.manualWheel = manualWheel;
+    }
+
+    public void setJournal(TransactionJournal journal) {
+        this.journal = journal;
+    }
+
+    public CartSession openSession() {
+        reclaimExpired();
+        CartSession session = new CartSession(nextId.incrementAndGet());
+        synchronized (session) {
+            sessions.put(session.id, session);
+            touch(session);
+        }
+        return session;
+    }
+
+    public void selectProduct(int sessionId, int productId, int quantity) {
+        reclaimExpired();
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be greater than 0");
+        }
+
+        CartSession session = require(sessionId);
+        synchronized (session) {
+            requireOpen(session);
+            if (!dispenser.holdProduct(productId, quantity)) {
+                throw new IllegalArgumentException("Product is not available");
+            }
+            session.cart.addTo(productId, quantity);
+            addToTotals(session, productId, quantity);
+            touch(session);
+        }
+    }
+
+    public void removeProduct(int sessionId, int productId) {
+        reclaimExpired();
+        CartSession session = require(sessionId);
+        synchronized (session) {
+            requireOpen(session);
+            int removedQuantity = session.cart.remove(productId);
+            if (removedQuantity != 0) {
+                dispenser.releaseHeld(productId, removedQuantity);
+                addToTotals(session, productId, -removedQuantity);
+            }
+            session.unitPrices.remove(productId);
+            touch(session);
+        }
+    }
+
+    // Pays for the held cart in one vault step. On failure the holds stay in place so the customer can retry.
+    public void checkout(int sessionId, IntIntMap money) {
+        reclaimExpired();
+        CartSession session = require(sessionId);
+        synchronized (session) {
+            requireOpen(session);
+            if (session.cart.isEmpty()) {
+                throw new IllegalArgumentException("Cart is empty");
+            }
+            // A line whose product was removed cannot be dispensed, the customer has to drop it first
+            for (int slot = session.cart.firstSlot(); slot >= 0; slot = session.cart.nextSlot(slot)) {
+                if (dispenser.getQuantity(session.cart.keyAt(slot)) < 0) {
+                    touch(session);
+                    throw new IllegalArgumentException("Product is not available");
+                }
+            }
+
+            long insertedAmountMoney = 0;
+            for (int slot = money.firstSlot(); slot >= 0; slot = money.nextSlot(slot)) {
+                insertedAmountMoney = Money.add(insertedAmountMoney,
+                        Money.multiply(money.keyAt(slot), money.valueAt(slot)));
+            }
+            long change = Money.subtract(insertedAmountMoney, session.totalPrice);
+
+            ChangePlan changePlan = denominationService.newChangePlan();
+            if (!denominationService.planTransaction(money, change, changePlan)) {
+                touch(session);
+                throw new IllegalArgumentException("Money is not enough or change cannot be given");
+            }
+            TransactionJournal journal = this.journal;
+            if (journal == null) {
+                commit(session, changePlan);
+            } else {
+                // Held with the snapshot's lock, see ProcessTransactionState
+                synchronized (journal) {
+                    commit(session, changePlan);
+                }
+            }
+            end(session);
+            EventLog.log(EventLog.SALE_COMPLETED, insertedAmountMoney - change, change);
+        }
+    }
+
+    // Vault, journal and stock of a checkout, called with the session locked
+    private void commit(CartSession session, ChangePlan changePlan) {
+        if (!denominationService.commit(changePlan)) {
+            touch(session);
+            throw new IllegalStateException("Vault changed while the transaction was processed");
+        }
+        if (journal != null) {
+            journal.recordSale(session.cart, changePlan);
+        }
+        dispenser.dispenseHeld(session.cart);
+    }
+
+    public void closeSession(int sessionId) {
+        CartSession session = sessions.get(sessionId);
+        if (session == null) {
+            return;
+        }
+        synchronized (session) {
+            if (!session.closed) {
+                dispenser.releaseHeld(session.cart);
+                end(session);
+            }
+        }
+    }
+
+    // Gives back the holds of every session idle past its deadline and returns how many sessions were expired.
+    // Only needed with a manual clock, otherwise the wheel's ticker expires sessions on time and this returns 0.
+    public int reclaimExpired() {
+        if (!manualWheel) {
+            return 0;
+        }
+        return expiryWheel.advanceTo(clock.getAsLong());
+    }
+
+    // Runs on the wheel. A timeout that was already firing when later activity moved it finds a newer deadline.
+    private void expire(CartSession session, long deadline) {
+        synchronized (session) {
+            if (!session.closed && session.deadline == deadline) {
+                dispenser.releaseHeld(session.cart);
+                end(session);
+            }
+        }
+    }
+
+    public CartSession getSession(int sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    public int activeSessions() {
+        return sessions.size();
+    }
+
+    private CartSession require(int sessionId) {
+        CartSession session = sessions.get(sessionId);
+        if (session == null) {
+            throw new IllegalArgumentException("Session is not open");
+        }
+        return session;
+    }
+
+    private static void requireOpen(CartSession session) {
+        if (session.closed) {
+            throw new IllegalArgumentException("Session is not open");
+        }
+    }
+
+    // Called with the session locked
+    private void touch(CartSession session) {
+        if (session.expiry != null) {
+            session.expiry.cancel();
+        }
+        long deadline = clock.getAsLong() + holdTimeoutNanos;
+        session.deadline = deadline;
+        session.expiry = wheel().schedule(() -> expire(session, deadline), holdTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private TimingWheel wheel() {
+        TimingWheel wheel = expiryWheel;
+        if (wheel != null) {
+            return wheel;
+        }
+        synchronized (SessionService.class) {
+            wheel = sharedExpiryWheel;
+            if (wheel == null) {
+                wheel = new TimingWheel(DEFAULT_TICK_NANOS, TimeUnit.NANOSECONDS);
+                wheel.start();
+                sharedExpiryWheel = wheel;
+            }
+        }
+        expiryWheel = wheel;
+        return wheel;
+    }
+
+    private void end(CartSession session) {
+        if (session.expiry != null) {
+            session.expiry.cancel();
+            session.expiry = null;
+        }
+        session.closed = true;
+        session.cart.clear();
+        session.unitPrices.clear();
+        session.totalPrice = 0;
+        session.itemCount = 0;
+        sessions.remove(session.id);
+    }
+
+    private void addToTotals(CartSession session, int productId, int quantity) {
+        long unitPrice = session.unitPrices.getOrDefault(productId, -1);
+        if (unitPrice < 0) {
+            unitPrice = Math.max(0, dispenser.getPrice(productId));
+            session.unitPrices.put(productId, unitPrice);
+        }
+        session.totalPrice = Money.add(session.totalPrice, Money.multiply(unitPrice, quantity));
+        session.itemCount += quantity;
+    }
+}
@@ -0,0 +1,272 @@
+package services;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+// Hierarchical timing wheel for very large numbers of timeouts, e.g. one abandoned-session timeout per machine
+// across a fleet. Four wheels of 256 buckets cover 2^32 ticks: wheel 0 holds timeouts due within 256 ticks,
+// wheel 1 within 256^2 ticks and so on. Each time the lower wheel wraps, the matching bucket of the wheel above is
+// cascaded down.
+//
+// schedule and cancel are O(1) and lock-free for callers: they only push the timeout onto a queue. One ticker
+// thread drains those queues, links or unlinks the timeouts in their doubly linked bucket, and runs the expired
+// ones. Tasks run on the ticker thread and must be short; hand anything longer to an executor or a mailbox. A task
+// that throws is reported to the failure handler, by default the uncaught-exception handler of the thread that
+// ran it, and the wheel carries on with the next one.
+public class TimingWheel {
+    private static final int BITS = 8;
+    private static final int SIZE = 1 << BITS;
+    private static final int MASK = SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_TICKS = 1L << (BITS * LEVELS);
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    final long tickNanos;
+    final LongSupplier clock;
+    final long startNanos;
+
+    // Bucket heads per wheel, touched only by the thread advancing the wheel
+    final Timeout[][] buckets = new Timeout[LEVELS][SIZE];
+    long currentTick;
+
+    final ConcurrentLinkedQueue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    final AtomicLong pending = new AtomicLong();
+    volatile Thread.UncaughtExceptionHandler failureHandler;
+
+    Thread ticker;
+    volatile boolean running;
+
+    public TimingWheel(long tick, TimeUnit unit) {
+        this(unit.toNanos(tick), System::nanoTime);
+    }
+
+    public TimingWheel(long tickNanos, LongSupplier clock) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("Tick must be greater than 0");
+        }
+        this.tickNanos = tickNanos;
+        this.clock = clock;
+        this.startNanos = clock.getAsLong();
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long delayNanos = Math.max(0, unit.toNanos(delay));
+        long elapsed = clock.getAsLong() - startNanos;
+        // Rounded up so a timeout never fires early
+        long deadlineTick = (elapsed + delayNanos + tickNanos - 1) / tickNanos;
+
+        Timeout timeout = new Timeout(this, task, deadlineTick);
+        pending.incrementAndGet();
+        scheduled.offer(timeout);
+        return timeout;
+    }
+
+    // Receives the exceptions thrown by tasks, with the thread that ran them
+    public void setFailureHandler(Thread.UncaughtExceptionHandler failureHandler) {
+        this.failureHandler = failureHandler;
+    }
+
+    // Timeouts scheduled and neither expired nor cancelled yet
+    public long pending() {
+        return pending.get();
+    }
+
+    // Starts the ticker thread, which advances the wheel to the clock once per tick
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        ticker = new Thread(() -> {
+            while (running) {
+                advanceTo(clock.getAsLong());
+                long elapsed = clock.getAsLong() - startNanos;
+                long untilNextTick = tickNanos - Math.floorMod(elapsed, tickNanos);
+                LockSupport.parkNanos(untilNextTick);
+            }
+        }, "timing-wheel");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (ticker != null) {
+            LockSupport.unpark(ticker);
+            ticker = null;
+        }
+    }
+
+    // Processes every tick up to the given clock value and returns the number of timeouts that fired. Called by
+    // the ticker thread, or directly when the wheel is driven by a manual clock.
+    public synchronized int advanceTo(long nowNanos) {
+        drainQueues();
+
+        long targetTick = (nowNanos - startNanos) / tickNanos;
+        int fired = 0;
+        while (currentTick < targetTick) {
+            currentTick++;
+            if ((currentTick & MASK) == 0) {
+                cascade(1);
+            }
+            int index = (int) (currentTick & MASK);
+            Timeout timeout = buckets[0][index];
+            buckets[0][index] = null;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                timeout.prev = null;
+                timeout.next = null;
+                timeout.level = -1;
+                fired += expire(timeout);
+                timeout = next;
+            }
+        }
+        return fired;
+    }
+
+    private void drainQueues() {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            if (timeout.state == PENDING) {
+                place(timeout);
+            }
+        }
+        while ((timeout = cancelled.poll()) != null) {
+            unlink(timeout);
+        }
+    }
+
+    // Moves the bucket of this wheel that the current tick points at down to the lower wheels
+    private void cascade(int level) {
+        int index = (int) ((currentTick >>> (BITS * level)) & MASK);
+        if (index == 0 && level + 1 < LEVELS) {
+            cascade(level + 1);
+        }
+
+        Timeout timeout = buckets[level][index];
+        buckets[level][index] = null;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.level = -1;
+            if (timeout.state == PENDING) {
+                place(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    private void place(Timeout timeout) {
+        long delta = timeout.deadlineTick - currentTick;
+        if (delta <= 0) {
+            expire(timeout);
+            return;
+        }
+
+        // Beyond the range of the top wheel the timeout waits in its last bucket and is placed again later
+        long tick = delta < MAX_TICKS ? timeout.deadlineTick : currentTick + MAX_TICKS - 1;
+        int level = 0;
+        while (level < LEVELS - 1 && tick - currentTick >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+        int index = (int) ((tick >>> (BITS * level)) & MASK);
+
+        Timeout head = buckets[level][index];
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        buckets[level][index] = timeout;
+        timeout.level = level;
+        timeout.index = index;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.level < 0) {
+            return;
+        }
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[timeout.level][timeout.index] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.level = -1;
+    }
+
+    private int expire(Timeout timeout) {
+        if (!Timeout.STATE.compareAndSet(timeout, PENDING, EXPIRED)) {
+            return 0;
+        }
+        pending.decrementAndGet();
+        try {
+            timeout.task.run();
+        } catch (RuntimeException e) {
+            Thread thread = Thread.currentThread();
+            Thread.UncaughtExceptionHandler handler = failureHandler;
+            (handler != null ? handler : thread.getUncaughtExceptionHandler()).uncaughtException(thread, e);
+        }
+        return 1;
+    }
+
+    public static class Timeout {
+        static final VarHandle STATE;
+
+        static {
+            try {
+                STATE = MethodHandles.lookup().findVarHandle(Timeout.class, "state", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        final TimingWheel wheel;
+        final Runnable task;
+        final long deadlineTick;
+        volatile int state;
+
+        // Bucket links, owned by the thread advancing the wheel
+        Timeout prev;
+        Timeout next;
+        int level = -1;
+        int index;
+
+        Timeout(TimingWheel wheel, Runnable task, long deadlineTick) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        // False if the timeout already fired or was cancelled before
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                return false;
+            }
+            wheel.pending.decrementAndGet();
+            wheel.cancelled.offer(this);
+            return true;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+    }
+}
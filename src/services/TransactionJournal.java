@@ -0,0 +1,392 @@
+package services;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import models.IntIntMap;
+
+// Append-only log of sales on a memory-mapped file. Every record is framed as
+// [int payload length][int crc32 of payload][payload], a zero length marks the end of the log and a record whose
+// checksum does not match is treated as a torn write at the tail.
+//
+// Records reach the page cache as soon as they are appended, so they survive a crash of the process. Surviving a
+// power cut needs the mapped pages to be forced to disk; that is done once per group of records (or once the
+// oldest unforced record is older than the delay) instead of once per sale. The delay is enforced by a timer, so
+// a partial group on a quiet machine is forced without waiting for the next sale.
+//
+// Sales change stock and coins and append their record while holding the journal's lock, and saveSnapshot takes
+// the same lock, so every sale is either in a snapshot or in the journal after it, never in both.
+public class TransactionJournal implements AutoCloseable {
+    static final byte CHECKPOINT = 1;
+    static final byte SALE = 2;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+    private static final int DEFAULT_GROUP_SIZE = 32;
+    private static final long DEFAULT_MAX_DELAY_NANOS = 10_000_000L;
+
+    // Forces partial groups of every journal that has no timer of its own. Only journal flushes run on it, a
+    // flush can wait on the disk and would hold up the timeouts of a shared wheel.
+    private static volatile TimingWheel sharedFlushTimer;
+
+    FileChannel channel;
+    MappedByteBuffer segment;
+    long segmentStart;
+    int segmentSize;
+
+    // Encoding buffer reused by every record, grows to the largest record seen
+    ByteBuffer scratch = ByteBuffer.allocate(256);
+    CRC32 crc = new CRC32();
+
+    long nextSequence = 1;
+
+    // Group commit bookkeeping: position inside the segment up to which pages were forced
+    int groupSize;
+    long maxDelayNanos;
+    int forcedPosition;
+    int unforcedRecords;
+    long firstUnforcedNanos;
+    TimingWheel flushTimer;
+    TimingWheel.Timeout flushTimeout; // forces the current group once its delay has passed
+
+    public TransactionJournal(Path path) {
+        this(path, DEFAULT_GROUP_SIZE, DEFAULT_MAX_DELAY_NANOS, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public TransactionJournal(Path path, int groupSize, long maxDelayNanos) {
+        this(path, groupSize, maxDelayNanos, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public TransactionJournal(Path path, int groupSize, long maxDelayNanos, int segmentSize) {
+        if (groupSize <= 0 || maxDelayNanos < 0 || segmentSize < HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid journal settings");
+        }
+        this.groupSize = groupSize;
+        this.maxDelayNanos = maxDelayNanos;
+        this.segmentSize = segmentSize;
+
+        try {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long end = scan(null);
+            mapSegment(end, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal cannot be opened", e);
+        }
+    }
+
+    // Replays the journal into the services: the last checkpoint sets the counts, every later sale is applied on
+    // top of it. Without a checkpoint the replay starts from the counts the services already hold, i.e. the
+    // state the machine was built with. Returns the number of records replayed.
+    public int recover(DispenserService dispenserService, DenominationService denominationService) {
+        return recover(dispenserService, denominationService, 0);
+    }
+
+    // Same as above for services loaded from a snapshot: records older than fromSequence are already part of
+    // the snapshot and are skipped
+    public synchronized int recover(DispenserService dispenserService, DenominationService denominationService,
+            long fromSequence) {
+        IntIntMap products = new IntIntMap();
+        IntIntMap coins = new IntIntMap();
+        dispenserService.collectQuantities(products);
+        denominationService.collectCounts(coins);
+
+        ReplayState state = new ReplayState(products, coins, fromSequence);
+        try {
+            scan(state);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal cannot be read", e);
+        }
+
+        dispenserService.restoreQuantities(state.products);
+        denominationService.restoreCounts(state.coins);
+        nextSequence = Math.max(nextSequence, fromSequence);
+        return state.records;
+    }
+
+    // Absolute product quantities and coin counts, written after changes made outside of sales (restocking,
+    // maintenance) so that recovery does not need the history before it
+    public synchronized long checkpoint(DispenserService dispenserService, DenominationService denominationService) {
+        IntIntMap products = new IntIntMap();
+        IntIntMap coins = new IntIntMap();
+        dispenserService.collectQuantities(products);
+        denominationService.collectCounts(coins);
+
+        long sequence = nextSequence;
+        ByteBuffer out = begin(CHECKPOINT, sequence, 8 + (products.size() + coins.size()) * 8);
+        putPairs(out, products);
+        putPairs(out, coins);
+        append(out);
+        return sequence;
+    }
+
+    // One sale: the cart that is dispensed and, per coin value, the coins stored and the coins paid back
+    public synchronized long recordSale(IntIntMap cart, ChangePlan plan) {
+        int coinLines = 0;
+        for (int i = 0; i < plan.size(); i++) {
+            if (plan.accept[i] != 0 || plan.take[i] != 0) {
+                coinLines++;
+            }
+        }
+
+        long sequence = nextSequence;
+        ByteBuffer out = begin(SALE, sequence, 8 + cart.size() * 8 + coinLines * 12);
+        putPairs(out, cart);
+        out.putShort(toShort(coinLines));
+        for (int i = 0; i < plan.size(); i++) {
+            if (plan.accept[i] != 0 || plan.take[i] != 0) {
+                out.putInt(plan.values[i]);
+                out.putInt(plan.accept[i]);
+                out.putInt(plan.take[i]);
+            }
+        }
+        append(out);
+        return sequence;
+    }
+
+    // Drops every record, called once a snapshot holds the state they lead to. Sequence numbers keep counting so
+    // the snapshot can tell its own records from later ones.
+    public synchronized void truncate() {
+        try {
+            mapSegment(0, segmentSize);
+            segment.putInt(0, 0);
+            segment.force(0, 4);
+            channel.truncate(segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal cannot be truncated", e);
+        }
+        unforcedRecords = 0;
+        cancelFlush();
+    }
+
+    // Forces every appended record to disk now
+    public synchronized void flush() {
+        force();
+    }
+
+    // Timer that forces a partial group once the delay has passed, instead of the shared one
+    public synchronized void setFlushTimer(TimingWheel flushTimer) {
+        this.flushTimer = flushTimer;
+    }
+
+    // Records appended but not forced to disk yet
+    public synchronized int getUnforcedRecords() {
+        return unforcedRecords;
+    }
+
+    public synchronized void close() {
+        force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal cannot be closed", e);
+        }
+    }
+
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    private ByteBuffer begin(byte type, long sequence, int bodySize) {
+        int size = HEADER_SIZE + 1 + 8 + bodySize;
+        if (scratch.capacity() < size) {
+            scratch = ByteBuffer.allocate(Math.max(size, scratch.capacity() * 2));
+        }
+        scratch.clear();
+        scratch.position(HEADER_SIZE);
+        scratch.put(type);
+        scratch.putLong(sequence);
+        return scratch;
+    }
+
+    private void append(ByteBuffer out) {
+        int length = out.position() - HEADER_SIZE;
+        crc.reset();
+        crc.update(out.array(), HEADER_SIZE, length);
+        out.putInt(4, (int) crc.getValue());
+        out.flip();
+
+        // The record is followed by a zero length that ends the log, both have to fit in the segment
+        if (segment.remaining() < out.limit() + 4) {
+            force();
+            try {
+                mapSegment(segmentStart + segment.position(), Math.max(segmentSize, out.limit() + 4));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Journal cannot grow", e);
+            }
+        }
+
+        // The length is written last, a record becomes visible to recovery only once it is complete
+        int position = segment.position();
+        segment.position(position + 4);
+        out.position(4);
+        segment.put(out);
+        segment.putInt(segment.position(), 0);
+        segment.putInt(position, length);
+
+        nextSequence++;
+        if (unforcedRecords == 0) {
+            firstUnforcedNanos = System.nanoTime();
+        }
+        unforcedRecords++;
+        if (unforcedRecords >= groupSize || System.nanoTime() - firstUnforcedNanos >= maxDelayNanos) {
+            force();
+        } else if (flushTimeout == null) {
+            flushTimeout = timer().schedule(this::flushDue, maxDelayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Runs on the timer once the first record of a group has waited for the delay
+    private synchronized void flushDue() {
+        flushTimeout = null;
+        if (unforcedRecords > 0 && channel.isOpen()) {
+            force();
+        }
+    }
+
+    private void force() {
+        int position = segment.position();
+        if (position > forcedPosition) {
+            segment.force(forcedPosition, position - forcedPosition);
+            forcedPosition = position;
+        }
+        unforcedRecords = 0;
+        cancelFlush();
+    }
+
+    private void cancelFlush() {
+        if (flushTimeout != null) {
+            flushTimeout.cancel();
+            flushTimeout = null;
+        }
+    }
+
+    private TimingWheel timer() {
+        if (flushTimer != null) {
+            return flushTimer;
+        }
+        TimingWheel timer = sharedFlushTimer;
+        if (timer == null) {
+            synchronized (TransactionJournal.class) {
+                timer = sharedFlushTimer;
+                if (timer == null) {
+                    timer = new TimingWheel(1, TimeUnit.MILLISECONDS);
+                    timer.start();
+                    sharedFlushTimer = timer;
+                }
+            }
+        }
+        return timer;
+    }
+
+    private void mapSegment(long start, int size) throws IOException {
+        this.segment = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+        this.segmentStart = start;
+        this.forcedPosition = 0;
+    }
+
+    // Walks the valid records from the start of the file and returns the offset right after the last one.
+    // Records are replayed into state when it is given.
+    private long scan(ReplayState state) throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            return 0;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Journal is too large to replay, write a checkpoint to a new file");
+        }
+
+        MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        long lastSequence = 0;
+        while (in.remaining() >= HEADER_SIZE) {
+            int start = in.position();
+            int length = in.getInt(start);
+            if (length <= 0 || length > in.remaining() - HEADER_SIZE) {
+                break;
+            }
+
+            ByteBuffer payload = in.slice(start + HEADER_SIZE, length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != in.getInt(start + 4)) {
+                break;
+            }
+
+            byte type = payload.get();
+            lastSequence = payload.getLong();
+            if (state != null && lastSequence >= state.fromSequence) {
+                state.apply(type, payload);
+            }
+            in.position(start + HEADER_SIZE + length);
+        }
+
+        nextSequence = Math.max(nextSequence, lastSequence + 1);
+        return in.position();
+    }
+
+    private static void putPairs(ByteBuffer out, IntIntMap pairs) {
+        out.putShort(toShort(pairs.size()));
+        for (int slot = pairs.firstSlot(); slot >= 0; slot = pairs.nextSlot(slot)) {
+            out.putInt(pairs.keyAt(slot));
+            out.putInt(pairs.valueAt(slot));
+        }
+    }
+
+    private static short toShort(int count) {
+        if (count > 0xFFFF) {
+            throw new IllegalArgumentException("Too many lines for one journal record");
+        }
+        return (short) count;
+    }
+
+    private static class ReplayState {
+        IntIntMap products;
+        IntIntMap coins;
+        long fromSequence;
+        int records;
+
+        ReplayState(IntIntMap products, IntIntMap coins, long fromSequence) {
+            this.products = products;
+            this.coins = coins;
+            this.fromSequence = fromSequence;
+        }
+
+        void apply(byte type, ByteBuffer payload) {
+            if (type == CHECKPOINT) {
+                products.clear();
+                coins.clear();
+                int productLines = payload.getShort() & 0xFFFF;
+                for (int i = 0; i < productLines; i++) {
+                    products.put(payload.getInt(), payload.getInt());
+                }
+                int coinLines = payload.getShort() & 0xFFFF;
+                for (int i = 0; i < coinLines; i++) {
+                    coins.put(payload.getInt(), payload.getInt());
+                }
+            } else if (type == SALE) {
+                int cartLines = payload.getShort() & 0xFFFF;
+                for (int i = 0; i < cartLines; i++) {
+                    int id = payload.getInt();
+                    products.addTo(id, -payload.getInt());
+                }
+                int coinLines = payload.getShort() & 0xFFFF;
+                for (int i = 0; i < coinLines; i++) {
+                    int value = payload.getInt();
+                    int accepted = payload.getInt();
+                    int paidOut = payload.getInt();
+                    coins.addTo(value, accepted - paidOut);
+                }
+            } else {
+                throw new IllegalStateException("Unknown journal record type " + type);
+            }
+            records++;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package services;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("vending.VaultOperation")
+@Label("Vault Operation")
+@Category("Vending Machine")
+@StackTrace(false)
+@Description("Coins added to or withdrawn from a denomination chain")
+class VaultOperationEvent extends Event {
+    @Label("Operation")
+    String operation;
+
+    // Minor units
+    @Label("Amount")
+    long amount;
+
+    @Label("Coins")
+    int coins;
+
+    @Label("Succeeded")
+    boolean succeeded;
+}
@@ -1,8 +1,8 @@
 package states;
 
 import java.util.List;
-import java.util.Map;
 
+import models.IntIntMap;
 import models.Product;
 import services.DispenserService;
 import services.SelectProductService;
@@ -29,6 +29,13 @@ public class IdleState implements VendingMachineState {
         selectProductService.selectProduct(id, quantity);
     }
 
+    public Outcome trySelectProduct(int id, int quantity) {
+        if (quantity <= 0) {
+            return Outcome.INVALID_QUANTITY;
+        }
+        return selectProductService.trySelectProduct(id, quantity) ? Outcome.OK : Outcome.OUT_OF_STOCK;
+    }
+
     public void updateSelectedProduct(int id, int quantity) {
         selectProductService.update(id, quantity);
     }
@@ -45,11 +52,15 @@ public class IdleState implements VendingMachineState {
         selectProductService.clear();
     }
 
-    public void insertMoney(Map<Integer, Integer> money) {
+    public void insertMoney(IntIntMap money) {
         throw new UnsupportedOperationException("Insert money is not supported in idle state");
     }
 
-    public void giveChange(int amount) {
+    public void insertCoin(int value) {
+        throw new UnsupportedOperationException("Insert coin is not supported in idle state");
+    }
+
+    public void giveChange(long amount) {
         throw new UnsupportedOperationException("Give change is not supported in idle state");
     }
 
@@ -64,4 +75,12 @@ public class IdleState implements VendingMachineState {
     public void processTransaction() {
         throw new UnsupportedOperationException("Process transaction is not supported in idle state");
     }
+
+    public Outcome tryProcessTransaction() {
+        return Outcome.INVALID_STATE;
+    }
+
+    public StateKind kind() {
+        return StateKind.IDLE;
+    }
 }
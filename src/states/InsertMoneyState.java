@@ -1,15 +1,15 @@
 package states;
 
 import java.util.List;
-import java.util.Map;
 
+import models.IntIntMap;
 import models.Product;
 
 public class InsertMoneyState implements VendingMachineState {
 
-    Map<Integer, Integer> money;
+    IntIntMap money;
 
-    public InsertMoneyState(Map<Integer, Integer> money) {
+    public InsertMoneyState(IntIntMap money) {
         this.money = money;
     }
 
@@ -21,6 +21,10 @@ public class InsertMoneyState implements VendingMachineState {
         throw new UnsupportedOperationException("Select product is not supported in insert money state");
     }
 
+    public Outcome trySelectProduct(int id, int quantity) {
+        return Outcome.INVALID_STATE;
+    }
+
     public void updateSelectedProduct(int id, int quantity) {
         throw new UnsupportedOperationException("Update selected product is not supported in insert money state");
     }
@@ -37,11 +41,15 @@ public class InsertMoneyState implements VendingMachineState {
         throw new UnsupportedOperationException("Clear selected products is not supported in insert money state");
     }
 
-    public void insertMoney(Map<Integer, Integer> money) {
+    public void insertMoney(IntIntMap money) {
         this.money = money;
     }
 
-    public void giveChange(int amount) {
+    public void insertCoin(int value) {
+        money.addTo(value, 1);
+    }
+
+    public void giveChange(long amount) {
         throw new UnsupportedOperationException("Give change is not supported in insert money state");
     }
 
@@ -57,4 +65,11 @@ public class InsertMoneyState implements VendingMachineState {
         throw new UnsupportedOperationException("Process transaction is not supported in insert money state");
     }
 
+    public Outcome tryProcessTransaction() {
+        return Outcome.INVALID_STATE;
+    }
+
+    public StateKind kind() {
+        return StateKind.INSERT_MONEY;
+    }
 }
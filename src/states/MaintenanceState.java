@@ -1,8 +1,8 @@
 package states;
 
 import java.util.List;
-import java.util.Map;
 
+import models.IntIntMap;
 import models.Product;
 import services.DenominationService;
 import services.DispenserService;
@@ -27,6 +27,10 @@ public class MaintenanceState implements VendingMachineState {
         throw new UnsupportedOperationException("Select product is not supported in maintenance state");
     }
 
+    public Outcome trySelectProduct(int id, int quantity) {
+        return Outcome.INVALID_STATE;
+    }
+
     public void updateSelectedProduct(int id, int quantity) {
         throw new UnsupportedOperationException("Update selected product is not supported in maintenance state");
     }
@@ -43,11 +47,15 @@ public class MaintenanceState implements VendingMachineState {
         throw new UnsupportedOperationException("Clear selected products is not supported in maintenance state");
     }
 
-    public void insertMoney(Map<Integer, Integer> money) {
+    public void insertMoney(IntIntMap money) {
         throw new UnsupportedOperationException("Insert money is not supported in maintenance state");
     }
 
-    public void giveChange(int amount) {
+    public void insertCoin(int value) {
+        throw new UnsupportedOperationException("Insert coin is not supported in maintenance state");
+    }
+
+    public void giveChange(long amount) {
         throw new UnsupportedOperationException("Give change is not supported in maintenance state");
     }
 
@@ -64,4 +72,11 @@ public class MaintenanceState implements VendingMachineState {
         throw new UnsupportedOperationException("Process transaction is not supported in maintenance state");
     }
 
+    public Outcome tryProcessTransaction() {
+        return Outcome.INVALID_STATE;
+    }
+
+    public StateKind kind() {
+        return StateKind.MAINTENANCE;
+    }
 }
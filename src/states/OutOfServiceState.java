@@ -1,8 +1,8 @@
 package states;
 
 import java.util.List;
-import java.util.Map;
 
+import models.IntIntMap;
 import models.Product;
 
 public class OutOfServiceState implements VendingMachineState {
@@ -14,6 +14,10 @@ public class OutOfServiceState implements VendingMachineState {
         throw new UnsupportedOperationException("Select product is not supported in out of service state");
     }
 
+    public Outcome trySelectProduct(int id, int quantity) {
+        return Outcome.INVALID_STATE;
+    }
+
     public void updateSelectedProduct(int id, int quantity) {
         throw new UnsupportedOperationException("Update selected product is not supported in out of service state");
     }
@@ -30,11 +34,15 @@ public class OutOfServiceState implements VendingMachineState {
         throw new UnsupportedOperationException("Clear selected products is not supported in out of service state");
     }
 
-    public void insertMoney(Map<Integer, Integer> money) {
+    public void insertMoney(IntIntMap money) {
         throw new UnsupportedOperationException("Insert money is not supported in out of service state");
     }
 
-    public void giveChange(int amount) {
+    public void insertCoin(int value) {
+        throw new UnsupportedOperationException("Insert coin is not supported in out of service state");
+    }
+
+    public void giveChange(long amount) {
         throw new UnsupportedOperationException("Give change is not supported in out of service state");
     }
 
@@ -51,4 +59,11 @@ public class OutOfServiceState implements VendingMachineState {
 
     }
 
+    public Outcome tryProcessTransaction() {
+        return Outcome.INVALID_STATE;
+    }
+
+    public StateKind kind() {
+        return StateKind.OUT_OF_SERVICE;
+    }
 }
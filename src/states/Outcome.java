@@ -0,0 +1,20 @@
+package states;
+
+// Result of the non-throwing operations. Rejected sales are routine under load, and building an exception
+// (stack trace included) for each one costs far more than the rejection itself.
+public enum Outcome {
+    OK,
+    OUT_OF_STOCK,
+    NO_CHANGE,
+    INSUFFICIENT_FUNDS,
+    INVALID_STATE,
+    INVALID_QUANTITY,
+    // A coin the vault has no room for, handed straight back
+    COIN_REJECTED,
+    // The vault was changed by another session between planning the change and taking it, retrying may succeed
+    VAULT_CHANGED;
+
+    public boolean isOk() {
+        return this == OK;
+    }
+}
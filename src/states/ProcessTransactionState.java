@@ -1,24 +1,45 @@
 package states;
 
 import java.util.List;
-import java.util.Map;
 
+import jdk.jfr.EventType;
+
+import models.IntIntMap;
+import models.Money;
 import models.Product;
 import services.*;
 
 public class ProcessTransactionState implements VendingMachineState {
+    private static final EventType SALE_EVENTS = EventType.getEventType(SaleEvent.class);
 
     DispenserService dispenserService;
     DenominationService denominationService;
     SelectProductService selectProductService;
-    Map<Integer, Integer> money;
+    IntIntMap money;
+    ChangePlan changePlan;
+    TransactionJournal journal;
 
     public ProcessTransactionState(DispenserService dispenserService, DenominationService denominationService,
-            SelectProductService selectProductService, Map<Integer, Integer> money) {
+            SelectProductService selectProductService, IntIntMap money) {
+        this(dispenserService, denominationService, selectProductService, money, null);
+    }
+
+    public ProcessTransactionState(DispenserService dispenserService, DenominationService denominationService,
+            SelectProductService selectProductService, IntIntMap money, TransactionJournal journal) {
         this.dispenserService = dispenserService;
         this.denominationService = denominationService;
         this.selectProductService = selectProductService;
         this.money = money;
+        this.journal = journal;
+    }
+
+    // The machine keeps one instance of this state and hands it each sale's money before entering it
+    public void setMoney(IntIntMap money) {
+        this.money = money;
+    }
+
+    public void setJournal(TransactionJournal journal) {
+        this.journal = journal;
     }
 
     public void addProducts(List<Product> products) {
@@ -29,6 +50,10 @@ public class ProcessTransactionState implements VendingMachineState {
         throw new UnsupportedOperationException("Select product is not supported in process transaction state");
     }
 
+    public Outcome trySelectProduct(int id, int quantity) {
+        return Outcome.INVALID_STATE;
+    }
+
     public void updateSelectedProduct(int id, int quantity) {
         throw new UnsupportedOperationException(
                 "Update selected product is not supported in process transaction state");
@@ -48,11 +73,15 @@ public class ProcessTransactionState implements VendingMachineState {
                 "Clear selected products is not supported in process transaction state");
     }
 
-    public void insertMoney(Map<Integer, Integer> money) {
+    public void insertMoney(IntIntMap money) {
         throw new UnsupportedOperationException("Insert money is not supported in process transaction state");
     }
 
-    public void giveChange(int amount) {
+    public void insertCoin(int value) {
+        throw new UnsupportedOperationException("Insert coin is not supported in process transaction state");
+    }
+
+    public void giveChange(long amount) {
         throw new UnsupportedOperationException("Give change is not supported in process transaction state");
     }
 
@@ -65,40 +94,134 @@ public class ProcessTransactionState implements VendingMachineState {
     }
 
     public void processTransaction() {
+        Outcome outcome = tryProcessTransaction();
+        if (outcome != Outcome.OK) {
+            throw failure(outcome);
+        }
+    }
 
-        if (!dispenserService.canDispenseProducts(selectProductService.selectedProducts)) {
-            throw new IllegalArgumentException("Products cannot be dispensed");
+    // Exception the throwing API uses for a rejected sale
+    public static RuntimeException failure(Outcome outcome) {
+        switch (outcome) {
+            case OUT_OF_STOCK:
+                return new IllegalArgumentException("Products cannot be dispensed");
+            case VAULT_CHANGED:
+                return new IllegalStateException("Vault changed while the transaction was processed");
+            case INVALID_STATE:
+                return new UnsupportedOperationException("Process transaction is not supported in this state");
+            default:
+                return new IllegalArgumentException("Money is not enough or change cannot be given");
         }
+    }
 
-        int selectedProductsPrice = 0;
+    // Same sale as processTransaction, with the reason for a rejection returned instead of thrown
+    public Outcome tryProcessTransaction() {
+        if (!SALE_EVENTS.isEnabled()) {
+            return sell(null);
+        }
+        SaleEvent event = new SaleEvent();
+        event.begin();
+        Outcome outcome = sell(event);
+        event.end();
+        if (event.shouldCommit()) {
+            event.outcome = outcome.name();
+            event.commit();
+        }
+        return outcome;
+    }
+
+    // Phase times go to the event when a recording wants them, null otherwise
+    private Outcome sell(SaleEvent event) {
+        IntIntMap selectedProducts = selectProductService.selectedProducts;
+        long selectedProductsPrice = selectProductService.getTotalPrice();
+
+        long insertedAmountMoney = 0;
 
-        for (int productId : selectProductService.selectedProducts.keySet()) {
-            selectedProductsPrice += selectProductService.selectedProducts.get(productId)
-                    * dispenserService.getProduct(productId).getPrice();
+        for (int slot = money.firstSlot(); slot >= 0; slot = money.nextSlot(slot)) {
+            insertedAmountMoney = Money.add(insertedAmountMoney, Money.multiply(money.keyAt(slot), money.valueAt(slot)));
         }
 
-        int insertedAmountMoney = 0;
+        long change = Money.subtract(insertedAmountMoney, selectedProductsPrice);
+        long phaseStart = 0;
+        if (event != null) {
+            event.cartLines = selectedProducts.size();
+            event.items = selectProductService.getItemCount();
+            event.price = selectedProductsPrice;
+            event.paid = insertedAmountMoney;
+            event.change = change;
+            phaseStart = System.nanoTime();
+        }
 
-        for (int value : money.keySet()) {
-            insertedAmountMoney += value * money.get(value);
+        if (change < 0) {
+            return Outcome.INSUFFICIENT_FUNDS;
+        }
+        // Nothing to sell, change may be paid from the inserted coins so this would only pass them through the vault
+        if (selectedProducts.isEmpty()) {
+            return Outcome.INVALID_QUANTITY;
         }
 
-        int change = insertedAmountMoney - selectedProductsPrice;
+        // VendingMachine.saveSnapshot holds the journal's lock too, so a snapshot sees either none of the sale or
+        // its stock, its coins and its record, never the first two without the record
+        TransactionJournal journal = this.journal;
+        if (journal == null) {
+            return commit(event, selectedProducts, selectedProductsPrice, change, phaseStart);
+        }
+        synchronized (journal) {
+            return commit(event, selectedProducts, selectedProductsPrice, change, phaseStart);
+        }
+    }
 
-        if (!denominationService.canAddMoney(money) || !denominationService.canWithdrawMoney(change)) {
-            throw new IllegalArgumentException("Money is not enough or change cannot be given");
+    private Outcome commit(SaleEvent event, IntIntMap selectedProducts, long selectedProductsPrice, long change,
+            long phaseStart) {
+        // Stock is taken up front so a concurrent session cannot sell the same units, and put back on any failure
+        if (!dispenserService.reserveProducts(selectedProducts)) {
+            return Outcome.OUT_OF_STOCK;
+        }
+        if (event != null) {
+            long now = System.nanoTime();
+            event.reserveTime = now - phaseStart;
+            phaseStart = now;
         }
 
-        denominationService.addMoney(money);
-        denominationService.withdrawMoney(change);
+        if (changePlan == null) {
+            changePlan = denominationService.newChangePlan();
+        }
+
+        if (!denominationService.planTransaction(money, change, changePlan)) {
+            dispenserService.releaseProducts(selectedProducts);
+            return Outcome.NO_CHANGE;
+        }
+        if (event != null) {
+            long now = System.nanoTime();
+            event.planTime = now - phaseStart;
+            phaseStart = now;
+        }
 
-        for (int productId : selectProductService.selectedProducts.keySet()) {
-            dispenserService.dispenseProduct(productId, selectProductService.selectedProducts.get(productId));
+        if (!denominationService.commit(changePlan)) {
+            dispenserService.releaseProducts(selectedProducts);
+            return Outcome.VAULT_CHANGED;
+        }
+        if (event != null) {
+            long now = System.nanoTime();
+            event.commitTime = now - phaseStart;
+            phaseStart = now;
+        }
+
+        // Logged before anything leaves the machine, recovery replays the whole sale
+        if (journal != null) {
+            journal.recordSale(selectedProducts, changePlan);
+            if (event != null) {
+                event.journalTime = System.nanoTime() - phaseStart;
+            }
         }
 
         selectProductService.clear();
 
-        System.out.println("Transaction completed successfully have a nice day");
+        EventLog.log(EventLog.SALE_COMPLETED, selectedProductsPrice, change);
+        return Outcome.OK;
     }
 
+    public StateKind kind() {
+        return StateKind.PROCESS_TRANSACTION;
+    }
 }
@@ -0,0 +1,51 @@
+package states;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// Amounts are in minor units. The event duration is the whole sale, the phase fields split it up.
+@Name("vending.Sale")
+@Label("Sale")
+@Category("Vending Machine")
+@StackTrace(false)
+@Description("One processTransaction call with its phases and outcome")
+class SaleEvent extends Event {
+    @Label("Cart Lines")
+    int cartLines;
+
+    @Label("Items")
+    int items;
+
+    @Label("Price")
+    long price;
+
+    @Label("Paid")
+    long paid;
+
+    @Label("Change")
+    long change;
+
+    @Label("Outcome")
+    String outcome;
+
+    @Label("Reserve Stock")
+    @Timespan
+    long reserveTime;
+
+    @Label("Plan Change")
+    @Timespan
+    long planTime;
+
+    @Label("Commit Vault")
+    @Timespan
+    long commitTime;
+
+    @Label("Journal")
+    @Timespan
+    long journalTime;
+}
@@ -0,0 +1,21 @@
+package states;
+
+public enum StateKind {
+    IDLE("idle"),
+    INSERT_MONEY("insert money"),
+    PROCESS_TRANSACTION("process transaction"),
+    MAINTENANCE("maintenance"),
+    OUT_OF_SERVICE("out of service");
+
+    static final StateKind[] ALL = values();
+
+    final String label;
+
+    StateKind(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
@@ -0,0 +1,24 @@
+package states;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("vending.StateTransition")
+@Label("State Transition")
+@Category("Vending Machine")
+@StackTrace(false)
+@Description("A vending machine moved from one state to another")
+public class StateTransitionEvent extends Event {
+    @Label("Machine Id")
+    public int machineId;
+
+    @Label("From")
+    public String from;
+
+    @Label("To")
+    public String to;
+}
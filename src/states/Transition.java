@@ -0,0 +1,54 @@
+package states;
+
+// Machine-level moves between states. The valid ones are data: NEXT holds the state every (state, transition)
+// pair leads to, null where the state does not allow the transition, so dispatch is one array lookup.
+public enum Transition {
+    CONFIRM_INSERT_MONEY("Confirm insert money"),
+    INSERT_MONEY("Insert money"),
+    COMPLETE_SALE("Complete sale"),
+    CLEAR_CART("Clear cart"),
+    CANCEL("Cancel transaction");
+
+    private static final StateKind[][] NEXT = new StateKind[StateKind.ALL.length][values().length];
+
+    static {
+        allow(StateKind.IDLE, CONFIRM_INSERT_MONEY, StateKind.INSERT_MONEY);
+        allow(StateKind.INSERT_MONEY, CONFIRM_INSERT_MONEY, StateKind.INSERT_MONEY);
+        // A customer whose payment was refused may start paying again
+        allow(StateKind.PROCESS_TRANSACTION, CONFIRM_INSERT_MONEY, StateKind.INSERT_MONEY);
+
+        allow(StateKind.INSERT_MONEY, INSERT_MONEY, StateKind.PROCESS_TRANSACTION);
+        allow(StateKind.PROCESS_TRANSACTION, INSERT_MONEY, StateKind.PROCESS_TRANSACTION);
+
+        allow(StateKind.PROCESS_TRANSACTION, COMPLETE_SALE, StateKind.IDLE);
+
+        allow(StateKind.IDLE, CLEAR_CART, StateKind.IDLE);
+
+        allow(StateKind.IDLE, CANCEL, StateKind.IDLE);
+        allow(StateKind.INSERT_MONEY, CANCEL, StateKind.IDLE);
+        allow(StateKind.PROCESS_TRANSACTION, CANCEL, StateKind.IDLE);
+    }
+
+    final String label;
+
+    Transition(String label) {
+        this.label = label;
+    }
+
+    // State reached from the given one, throws like the states do when the transition is not allowed
+    public StateKind next(StateKind from) {
+        StateKind next = NEXT[from.ordinal()][ordinal()];
+        if (next == null) {
+            throw new UnsupportedOperationException(label + " is not supported in " + from.label + " state");
+        }
+        return next;
+    }
+
+    public boolean isAllowed(StateKind from) {
+        return NEXT[from.ordinal()][ordinal()] != null;
+    }
+
+    private static void allow(StateKind from, Transition transition, StateKind to) {
+        NEXT[from.ordinal()][transition.ordinal()] = to;
+    }
+}
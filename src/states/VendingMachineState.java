@@ -1,17 +1,21 @@
 package states;
 
 import java.util.List;
-import java.util.Map;
 
+import models.IntIntMap;
 import models.Product;
 
 public interface VendingMachineState {
     void addProducts(List<Product> products);
 
-    void insertMoney(Map<Integer, Integer> money);
+    void insertMoney(IntIntMap money);
+
+    void insertCoin(int value);
 
     void selectProduct(int id, int quantity);
 
+    Outcome trySelectProduct(int id, int quantity);
+
     void updateSelectedProduct(int id, int quantity);
 
     void removeSelectedProduct(int id);
@@ -24,7 +28,11 @@ public interface VendingMachineState {
 
     void processTransaction();
 
-    void giveChange(int amount);
+    Outcome tryProcessTransaction();
+
+    void giveChange(long amount);
 
     void dispenseProducts();
+
+    StateKind kind();
 }